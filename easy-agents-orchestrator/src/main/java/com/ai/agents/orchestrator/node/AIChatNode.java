@@ -1,11 +1,14 @@
 package com.ai.agents.orchestrator.node;
 
+import com.ai.agents.orchestrator.util.TextSegments;
+import com.ai.agents.orchestrator.workflow.WorkFlowContext;
 import org.springframework.ai.chat.client.ChatClient.*;
 import org.springframework.ai.chat.messages.*;
 import org.springframework.util.*;
-import reactor.core.publisher.Flux;
+import reactor.core.publisher.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 
 
@@ -21,43 +24,126 @@ public class AIChatNode<IN> extends Node<IN> {
 
     private ChatClientRequestSpec chatClientRequestSpec;
     private Function<IN, List<Message>> prompt = input -> null;
+    // 设置后请求经批处理器与其他执行的请求合并发送，只支持 String 输出
+    private ChatBatcher batcher;
 
 
     @Override
-    public <OUT> OUT executeBlocking() {
+    public <OUT> OUT executeBlocking(IN input) {
 
         List<Message> messages = prompt.apply(input);
+        if (batcher != null) {
+            return (OUT) awaitBatch(batcher.submit(messages));
+        }
 
         if (ClassUtils.isAssignable(outType, String.class)) {
-            return (OUT) chatClientRequestSpec.messages(messages).call().content();
+            return (OUT) newRequest().messages(messages).call().content();
         }
 
-        return (OUT) chatClientRequestSpec.messages(messages).call().entity(outType);
+        return (OUT) newRequest().messages(messages).call().entity(outType);
     }
 
     @Override
-    public Flux<?> executeStreaming() {
+    public Flux<?> executeStreaming(IN input) {
         // 真实流式：直接返回底层的响应式流
         List<Message> messages = prompt.apply(input);
-        return chatClientRequestSpec.messages(messages).stream().content();
+        if (batcher != null) {
+            // 批量接口不是流式的，整段回复作为一个元素；取消订阅会撤回尚未发出的请求
+            return Mono.fromFuture(() -> batcher.submit(messages)).flux();
+        }
+        return newRequest().messages(messages).stream().content();
+    }
+
+    /**
+     * 经批处理器发送时由引擎直接等待批处理器的 future：等待期间不占用执行器线程，
+     * 一批的大小因此不受线程数限制；执行被取消或超时时引擎取消该 future，尚未发出的请求随之撤回
+     * 未设置批处理器时按普通方式执行
+     */
+    @Override
+    public CompletableFuture<?> executeNodeAsync(WorkFlowContext context) {
+        if (batcher == null) {
+            return null;
+        }
+        try {
+            return batcher.submit(prompt.apply(resolveInput(context)));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 单独调用（如作为 {@link MapNode} 的子节点）时阻塞等待批量回复
+     */
+    private static String awaitBatch(CompletableFuture<String> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // 执行被取消或超时：撤回尚未发出的请求
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待批量回复时被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("批量请求失败", e.getCause());
+        }
+    }
+
+    /**
+     * 以 prompt 生成的消息列表作为缓存键：不同输入只要生成相同的消息就能命中
+     */
+    @Override
+    protected Object cacheKey(IN input) {
+        return prompt.apply(input);
+    }
+
+    /**
+     * 流水线执行时把父节点的文本输出按句切分，每凑齐一句就以该句作为输入发起一次对话，
+     * 各句的回答按顺序拼接输出，例如 摘要 -> 翻译 时无需等待整篇摘要生成完毕；每句的调用各占用一次限制器名额
+     */
+    @Override
+    public Flux<?> executeNodePipelined(WorkFlowContext context, Flux<?> upstream) {
+        return TextSegments.sentences(upstream)
+                .concatMap(sentence -> context.limitStreaming(this, Flux.defer(() -> executeStreaming((IN) sentence))));
+    }
+
+    /**
+     * ChatClientRequestSpec 是可变的，messages() 会在原对象上追加消息，
+     * 因此每次调用都基于构建时的请求复制出一个新的请求，避免并发执行间互相污染
+     */
+    private ChatClientRequestSpec newRequest() {
+        return chatClientRequestSpec.mutate().build().prompt();
     }
 
     private AIChatNode(AIChatNodeBuilder<IN> builder) {
         super(builder.input);
         this.prompt = builder.prompt;
         this.chatClientRequestSpec = builder.chatClientRequestSpec;
+        this.batcher = builder.batcher;
         this.inType = builder.inType;
         this.outType = builder.outType;
         this.workFlowManager = builder.workFlowManager;
+        // 模型调用默认视为 I/O 密集型
+        this.ioBound = true;
+        // 流式输出是逐个 token，默认拼接为完整回答
+        this.reducer = StreamReducer.concat();
+        this.applyOptions(builder);
     }
 
     private AIChatNode(AIChatNodeBuilder<IN> builder, UUID inputResultId) {
         super(inputResultId);
         this.prompt = builder.prompt;
         this.chatClientRequestSpec = builder.chatClientRequestSpec;
+        this.batcher = builder.batcher;
         this.inType = builder.inType;
         this.outType = builder.outType;
         this.workFlowManager = builder.workFlowManager;
+        // 模型调用默认视为 I/O 密集型
+        this.ioBound = true;
+        // 流式输出是逐个 token，默认拼接为完整回答
+        this.reducer = StreamReducer.concat();
+        this.applyOptions(builder);
     }
 
 
@@ -70,6 +156,7 @@ public class AIChatNode<IN> extends Node<IN> {
 
         private ChatClientRequestSpec chatClientRequestSpec;
         private Function<IN, List<Message>> prompt = input -> null;
+        private ChatBatcher batcher;
         public AIChatNodeBuilder<IN> prompt(Function<IN, List<Message>> prompt) {
             this.prompt = prompt;
             return this;
@@ -78,6 +165,19 @@ public class AIChatNode<IN> extends Node<IN> {
             this.chatClientRequestSpec = chatClientRequestSpec;
             return this;
         }
+        // 通过批处理器发送请求，与其他执行中的请求合并（此时不需要 chatClientRequestSpec）
+        public AIChatNodeBuilder<IN> batcher(ChatBatcher batcher) {
+            this.batcher = batcher;
+            return this;
+        }
+
+        @Override
+        protected void validate() {
+            super.validate();
+            if (batcher != null && outType != null && !ClassUtils.isAssignable(outType, String.class)) {
+                throw new IllegalArgumentException("批量请求只支持String输出：" + outType.getName());
+            }
+        }
 
         @Override
         public AIChatNode<IN> build(UUID inputResultId) {
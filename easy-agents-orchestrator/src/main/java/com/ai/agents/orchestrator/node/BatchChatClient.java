@@ -0,0 +1,24 @@
+package com.ai.agents.orchestrator.node;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 支持批量请求的对话客户端
+ * 由 {@link ChatBatcher} 调用，把多个 AIChatNode 的请求合并为一次调用（例如模型提供方的批量接口或自建的批处理网关）
+ *
+ * @author han
+ * @time 2026/10/17 19:50
+ */
+
+@FunctionalInterface
+public interface BatchChatClient {
+
+    /**
+     * 一次处理多个对话请求
+     * @param requests 每个元素是一次对话的消息列表
+     * @return 各请求的回复文本，与 requests 按下标一一对应
+     */
+    List<String> call(List<List<Message>> requests);
+}
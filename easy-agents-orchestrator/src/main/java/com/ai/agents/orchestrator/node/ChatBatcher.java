@@ -0,0 +1,259 @@
+package com.ai.agents.orchestrator.node;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 对话请求的批处理器
+ * 收集各个工作流执行中待发送的 AIChatNode 请求，凑满 maxBatchSize 个或等待 window 后，
+ * 通过 {@link BatchChatClient} 一次发出，再把每个回复交还给发起请求的执行
+ * 同一个批处理器可以被多个节点、多个管理器共享，共享范围越大批量越满
+ *
+ * <pre>{@code
+ * ChatBatcher batcher = ChatBatcher.builder()
+ *     .client(batchClient)
+ *     .maxBatchSize(16)
+ *     .window(Duration.ofMillis(10))
+ *     .build();
+ * AIChatNode.<String>builder().batcher(batcher)...
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 19:50
+ */
+
+public class ChatBatcher implements AutoCloseable {
+
+    // 所有批处理器共享的窗口计时线程，只做调度，不执行请求
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-batch-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final BatchChatClient client;
+    private final int maxBatchSize;
+    private final Duration window;
+    // 批量请求在此执行，避免阻塞提交方与计时线程
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    // 当前批次的编号，计时到期时只冲刷仍是同一批次的请求
+    private long generation;
+    private ScheduledFuture<?> flushTask;
+    private boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+
+    private record Pending(List<Message> messages, CompletableFuture<String> future) {
+    }
+
+    private ChatBatcher(Builder builder) {
+        this.client = builder.client;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.window = builder.window;
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownsExecutor = false;
+        } else {
+            this.executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "chat-batch-" + THREAD_COUNTER.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            this.ownsExecutor = true;
+        }
+    }
+
+    /**
+     * 提交一次对话请求
+     * 取消返回的 future 后，尚未发出的请求不会再被发送
+     * @param messages 对话消息
+     * @return 回复文本；批处理器已关闭时立即以 IllegalStateException 失败
+     */
+    public CompletableFuture<String> submit(List<Message> messages) {
+        Pending p = new Pending(messages, new CompletableFuture<>());
+        List<Pending> full = null;
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("ChatBatcher已关闭"));
+            }
+            pending.add(p);
+            if (pending.size() >= maxBatchSize) {
+                full = take();
+            } else if (pending.size() == 1) {
+                // 批次的第一个请求开始计时
+                long gen = generation;
+                flushTask = TIMER.schedule(() -> flush(gen), window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return p.future();
+    }
+
+    private List<Pending> take() {
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        generation++;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return batch;
+    }
+
+    private void flush(long gen) {
+        List<Pending> batch;
+        synchronized (lock) {
+            if (gen != generation || pending.isEmpty()) {
+                return;
+            }
+            batch = take();
+        }
+        dispatch(batch);
+    }
+
+    /**
+     * 把一批请求交给执行线程；执行器拒绝时（已关闭或队列已满）整批以该异常失败，不会留下永远不完成的 future
+     */
+    private void dispatch(List<Pending> batch) {
+        try {
+            executor.execute(() -> call(batch));
+        } catch (RejectedExecutionException e) {
+            for (Pending p : batch) {
+                p.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void call(List<Pending> batch) {
+        // 跳过在等待期间被取消的请求
+        List<Pending> live = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            if (!p.future().isDone()) {
+                live.add(p);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        batches.increment();
+        requests.add(live.size());
+        try {
+            List<List<Message>> input = new ArrayList<>(live.size());
+            for (Pending p : live) {
+                input.add(p.messages());
+            }
+            List<String> responses = client.call(input);
+            if (responses == null || responses.size() != live.size()) {
+                throw new IllegalStateException(String.format("批量回复数量与请求数量不一致：请求%d，回复%d",
+                        live.size(), responses == null ? 0 : responses.size()));
+            }
+            for (int i = 0; i < live.size(); i++) {
+                live.get(i).future().complete(responses.get(i));
+            }
+        } catch (Throwable e) {
+            for (Pending p : live) {
+                p.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 已发出的批次数
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * 已发出的请求数
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * 立即发出剩余的请求，并关闭自建的执行线程；关闭后提交的请求立即失败
+     */
+    @Override
+    public void close() {
+        List<Pending> rest;
+        synchronized (lock) {
+            closed = true;
+            rest = pending.isEmpty() ? null : take();
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+        }
+        if (rest != null) {
+            dispatch(rest);
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private BatchChatClient client;
+        private int maxBatchSize = 16;
+        private Duration window = Duration.ofMillis(10);
+        private ExecutorService executor;
+
+        public Builder client(BatchChatClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * 一批最多的请求数，凑满立即发出，默认 16
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * 一批最长的等待时间，从该批第一个请求到达时开始计时，默认 10ms
+         */
+        public Builder window(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * 执行批量请求的线程池，默认自建按需线程池
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public ChatBatcher build() {
+            Objects.requireNonNull(client, "client不能为null");
+            Objects.requireNonNull(window, "window不能为null");
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("maxBatchSize必须大于0: " + maxBatchSize);
+            }
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window必须大于0: " + window);
+            }
+            return new ChatBatcher(this);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.ai.agents.orchestrator.node;
 
-import reactor.core.publisher.Flux;
+import com.ai.agents.orchestrator.workflow.WorkFlowContext;
+import reactor.core.publisher.*;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.function.Function;
@@ -14,15 +15,28 @@ public class CodeNode<IN> extends Node<IN> {
     private Function<IN, Object> code = input -> null;
 
     @Override
-    public <OUT> OUT executeBlocking() {
-        // 使用存储的input作为参数调用函数
+    public <OUT> OUT executeBlocking(IN input) {
+        // 使用本次执行解析出的input作为参数调用函数
         return (OUT) code.apply(input);
     }
 
     @Override
-    public Flux<?> executeStreaming() {
-        Object v = this.executeBlocking();
-        return Flux.just(v);
+    public Flux<?> executeStreaming(IN input) {
+        // 延迟到订阅时执行，由引擎决定在哪个调度器上运行用户代码
+        return Mono.fromCallable(() -> this.executeBlocking(input)).flux();
+    }
+
+    /**
+     * 流水线执行时对父节点的每个输出分别调用 code，返回 null 的输出会被忽略
+     */
+    @Override
+    public Flux<?> executeNodePipelined(WorkFlowContext context, Flux<?> upstream) {
+        return upstream.handle((chunk, sink) -> {
+            Object out = code.apply((IN) chunk);
+            if (out != null) {
+                sink.next(out);
+            }
+        });
     }
 
     private CodeNode(CodeNodeBuilder<IN> builder) {
@@ -31,6 +45,7 @@ public class CodeNode<IN> extends Node<IN> {
         this.inType = builder.inType;
         this.outType = builder.outType;
         this.workFlowManager = builder.workFlowManager;
+        this.applyOptions(builder);
     }
 
     private CodeNode(CodeNodeBuilder<IN> builder, UUID inputResultId) {
@@ -39,6 +54,7 @@ public class CodeNode<IN> extends Node<IN> {
         this.inType = builder.inType;
         this.outType = builder.outType;
         this.workFlowManager = builder.workFlowManager;
+        this.applyOptions(builder);
     }
 
     /**
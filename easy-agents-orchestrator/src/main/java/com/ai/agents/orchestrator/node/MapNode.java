@@ -0,0 +1,217 @@
+package com.ai.agents.orchestrator.node;
+
+import com.ai.agents.orchestrator.workflow.*;
+import reactor.core.publisher.*;
+import reactor.core.scheduler.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 扇出节点：对输入集合中的每个元素运行同一个子节点，并发数受 maxConcurrency 限制
+ * 阻塞执行时按元素顺序返回只读列表（元素结果为 null 时保留 null）；
+ * 流式执行时每个元素完成后输出一次它的结果，ordered 为 true 时按元素顺序输出，否则按完成顺序输出
+ *
+ * 子节点只作为模板使用，直接以元素为输入调用，其 input/inputResultId 不生效；
+ * 子节点的超时与限制器按元素生效（在工作流中执行时限制器按管理器的解析规则取得，包括按节点类型配置的限制器），
+ * 流式执行时元素结果按子节点的 reducer 聚合；阻塞执行时引擎等待元素全部完成，等待期间不占用执行器或工作窃取线程
+ *
+ * <pre>{@code
+ * TreeNode summaries = docs.addChild(MapNode.<String>builder()
+ *     .mapper(AIChatNode.<String>builder().chatClientRequestSpec(spec).prompt(doc -> List.of(new UserMessage("总结：" + doc))).build((String) null))
+ *     .maxConcurrency(8)
+ *     .build(docs.getId()));
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 21:10
+ */
+
+public class MapNode<E> extends Node<Collection<E>> {
+
+    private final Node<E> mapper;
+    private final int maxConcurrency;
+    private final boolean ordered;
+    // 为 null 时按子节点是否 I/O 密集选择 boundedElastic 或 parallel
+    private final Scheduler scheduler;
+
+    private MapNode(MapNodeBuilder<E> builder) {
+        super(builder.input);
+        this.mapper = builder.mapper;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.ordered = builder.ordered;
+        this.scheduler = builder.scheduler;
+        init(builder);
+    }
+
+    private MapNode(MapNodeBuilder<E> builder, UUID inputResultId) {
+        super(inputResultId);
+        this.mapper = builder.mapper;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.ordered = builder.ordered;
+        this.scheduler = builder.scheduler;
+        init(builder);
+    }
+
+    private void init(MapNodeBuilder<E> builder) {
+        this.inType = builder.inType;
+        this.outType = builder.outType;
+        this.workFlowManager = builder.workFlowManager;
+        // 默认与子节点一致：子节点为 I/O 密集型时本节点也只是在等待
+        this.ioBound = mapper.isIoBound();
+        this.reducer = StreamReducer.toList();
+        this.applyOptions(builder);
+    }
+
+    public Node<E> getMapper() {
+        return mapper;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * 阻塞执行时由引擎等待全部元素完成，元素在调度器上并发执行，不占用提交本节点的线程
+     */
+    @Override
+    public CompletableFuture<?> executeNodeAsync(WorkFlowContext context) {
+        try {
+            return mapAll(resolveInput(context), context.limiterOf(mapper)).toFuture();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public <OUT> OUT executeNodeBlocking(WorkFlowContext context) {
+        return (OUT) mapAll(resolveInput(context), context.limiterOf(mapper)).block();
+    }
+
+    @Override
+    public <OUT> OUT executeBlocking(Collection<E> input) {
+        return (OUT) mapAll(input, mapper.getLimiter()).block();
+    }
+
+    @Override
+    public Flux<?> executeNodeStreaming(WorkFlowContext context) {
+        return mapStreaming(resolveInput(context), context.limiterOf(mapper));
+    }
+
+    @Override
+    public Flux<?> executeStreaming(Collection<E> input) {
+        return mapStreaming(input, mapper.getLimiter());
+    }
+
+    /**
+     * 并发执行全部元素，完成后按元素顺序给出只读列表
+     */
+    private Mono<List<Object>> mapAll(Collection<E> input, NodeLimiter limiter) {
+        List<E> items = input == null ? List.of() : new ArrayList<>(input);
+        Object[] results = new Object[items.size()];
+        return Flux.range(0, items.size())
+                .flatMap(i -> element(Mono.fromCallable(() -> mapper.executeBlocking(items.get(i)))
+                        .doOnNext(result -> results[i] = result)
+                        .flux(), limiter), maxConcurrency)
+                .then(Mono.fromCallable(() -> Collections.unmodifiableList(Arrays.asList(results))));
+    }
+
+    private Flux<?> mapStreaming(Collection<E> input, NodeLimiter limiter) {
+        List<E> items = input == null ? List.of() : new ArrayList<>(input);
+        Flux<E> source = Flux.fromIterable(items);
+        if (ordered) {
+            return source.flatMapSequential(item -> element(reduce(mapper.executeStreaming(item), mapper.getReducer()), limiter), maxConcurrency);
+        }
+        return source.flatMap(item -> element(reduce(mapper.executeStreaming(item), mapper.getReducer()), limiter), maxConcurrency);
+    }
+
+    /**
+     * 单个元素的执行：在调度器上订阅，并应用子节点的超时与限制器
+     */
+    private <T> Flux<T> element(Flux<T> execution, NodeLimiter limiter) {
+        Flux<T> flux = execution.subscribeOn(scheduler != null ? scheduler
+                : mapper.isIoBound() ? Schedulers.boundedElastic() : Schedulers.parallel());
+        if (mapper.getTimeout() != null) {
+            flux = flux.timeout(mapper.getTimeout());
+        }
+        return limiter == null ? flux : limiter.limit(flux);
+    }
+
+    /**
+     * 按子节点的 reducer 把一个元素的输出流聚合为一个结果，结果为 null 时不输出
+     */
+    private static <A> Flux<Object> reduce(Flux<?> outputs, StreamReducer<A> reducer) {
+        return outputs
+                .collect(() -> new Object[]{reducer.init()}, (acc, item) -> acc[0] = reducer.accumulate((A) acc[0], item))
+                .mapNotNull(acc -> reducer.finish((A) acc[0]))
+                .flux();
+    }
+
+    /**
+     * 静态方法获取建造器
+     */
+
+    public static <E> MapNodeBuilder<E> builder() {
+        return new MapNodeBuilder<>();
+    }
+
+    public static class MapNodeBuilder<E> extends NodeBuilder<Collection<E>, MapNodeBuilder<E>, MapNode<E>> {
+        private Node<E> mapper;
+        private int maxConcurrency = 4;
+        private boolean ordered = true;
+        private Scheduler scheduler;
+
+        // 对每个元素运行的子节点
+        public MapNodeBuilder<E> mapper(Node<E> mapper) {
+            this.mapper = mapper;
+            return this;
+        }
+
+        // 同时执行的元素数上限，默认 4
+        public MapNodeBuilder<E> maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        // 流式执行时是否按元素顺序输出，默认 true；为 false 时按完成顺序输出，结果池中的列表也按完成顺序排列
+        public MapNodeBuilder<E> ordered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        // 执行元素的调度器
+        public MapNodeBuilder<E> scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        @Override
+        protected void validate() {
+            super.validate();
+            Objects.requireNonNull(mapper, "mapper不能为null");
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency必须大于0: " + maxConcurrency);
+            }
+        }
+
+        @Override
+        public MapNode<E> build(UUID inputResultId) {
+            // 先验证参数
+            validate();
+            this.inputResultId(inputResultId);
+            return new MapNode<>(this, inputResultId);
+        }
+
+        @Override
+        public MapNode<E> build(Collection<E> input) {
+            // 先验证参数
+            validate();
+            this.input(input);
+            return new MapNode<>(this);
+        }
+    }
+}
@@ -6,7 +6,9 @@ import com.ai.agents.orchestrator.workflow.WorkFlowManager.*;
 import com.ai.agents.common.model.*;
 import reactor.core.publisher.Flux;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 节点是完全独立的, 不承担任何连接逻辑
@@ -23,6 +25,30 @@ public abstract class Node<IN> {
 
     protected UUID inputResultId;
 
+    // 是否为 I/O 密集型节点：流式执行时 I/O 密集型节点在 I/O 调度器上运行，其余在 CPU 调度器上运行
+    protected boolean ioBound;
+
+    // 单次执行的超时时间，为 null 时不限制
+    protected Duration timeout;
+
+    // 流式执行时的增量聚合器，决定写入结果池的结果
+    protected StreamReducer<?> reducer = StreamReducer.last();
+
+    // 是否允许管理器复用该节点的结果（结果缓存、合并进行中的相同调用）：只应对相同输入总是产生相同结果、且没有副作用的节点开启
+    protected boolean cacheable;
+
+    // 节点自身的并发/速率限制器，为 null 时使用管理器上按节点类型配置的限制器
+    protected NodeLimiter limiter;
+
+    // 是否为轻量的同步节点：直接在完成父节点的线程上执行，不提交任务、不切换调度器
+    protected boolean inline;
+
+    // 是否允许推测执行：带路由选项的子节点在父节点运行的同时提前启动，路由结算后采用或丢弃结果
+    protected boolean speculative;
+
+    // 有多个父节点时的汇聚方式
+    protected JoinMode joinMode = JoinMode.ALL;
+
     protected Node() {
 
     }
@@ -36,6 +62,65 @@ public abstract class Node<IN> {
         }
     }
 
+    public boolean isIoBound() {
+        return ioBound;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public StreamReducer<?> getReducer() {
+        return reducer;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public NodeLimiter getLimiter() {
+        return limiter;
+    }
+
+    public boolean isInline() {
+        return inline;
+    }
+
+    public boolean isSpeculative() {
+        return speculative;
+    }
+
+    public JoinMode getJoinMode() {
+        return joinMode;
+    }
+
+    public UUID getInputResultId() {
+        return inputResultId;
+    }
+
+    /**
+     * 从建造器复制各节点类型通用的执行选项，由子类构造器调用
+     * 未在建造器上显式设置的选项保持子类给定的默认值
+     */
+    protected void applyOptions(NodeBuilder<IN, ?, ?> builder) {
+        if (builder.ioBound != null) {
+            this.ioBound = builder.ioBound;
+        }
+        this.timeout = builder.timeout;
+        if (builder.reducer != null) {
+            this.reducer = builder.reducer;
+        }
+        this.cacheable = builder.cacheable;
+        if (builder.limiter != null) {
+            this.limiter = builder.limiter;
+        }
+        this.inline = builder.inline;
+        this.speculative = builder.speculative;
+        if (builder.joinMode != null) {
+            this.joinMode = builder.joinMode;
+        }
+    }
+
     public void setWorkFlowManager(WorkFlowManager<?> workFlowManager) {
         this.workFlowManager = workFlowManager;
     }
@@ -47,28 +132,75 @@ public abstract class Node<IN> {
 
     }
 
-    public <OUT> OUT executeNodeBlocking() {
-        if (inputResultId != null) {
-            NodeResult nodeResult = workFlowManager.getResultPool().get(inputResultId);
-            Object value = nodeResult.getValue();
-            this.input = (IN) value;
-        }
-        return executeBlocking();
+    /**
+     * 在某次工作流执行中运行该节点（阻塞）
+     * 输入按本次执行的上下文解析，不会写回节点字段，因此同一节点可以被多个执行并发调用
+     */
+    public <OUT> OUT executeNodeBlocking(WorkFlowContext context) {
+        return executeBlocking(resolveInput(context));
     }
-    public abstract <OUT> OUT executeBlocking();
+    public abstract <OUT> OUT executeBlocking(IN input);
 
 
-    public Flux<?> executeNodeStreaming() {
-        if (inputResultId != null) {
-            NodeResult nodeResult = workFlowManager.getResultPool().get(inputResultId);
-            Object value = nodeResult.getValue();
-            this.input = (IN) value;
-        }
-        return executeStreaming();
+    public Flux<?> executeNodeStreaming(WorkFlowContext context) {
+        return executeStreaming(resolveInput(context));
     }
 
-    public abstract Flux<?> executeStreaming();
+    public abstract Flux<?> executeStreaming(IN input);
 
+    /**
+     * 阻塞执行时由引擎调用：返回非 null 的 future 时引擎等待它完成，而不是把节点作为任务提交到执行器，
+     * 等待期间不占用任何线程；执行被取消或超时时引擎会取消该 future
+     * 默认返回 null，按普通方式执行 {@link #executeNodeBlocking}
+     */
+    public CompletableFuture<?> executeNodeAsync(WorkFlowContext context) {
+        return null;
+    }
+
+    /**
+     * 作为流水线子节点运行：upstream 为父节点的实时输出流，父节点仍在输出时本节点就已启动
+     * 实现必须且只能订阅 upstream 一次，父节点的输出会等待所有流水线子节点订阅后才开始；
+     * 实现内部发起的每次调用都应经过 {@link WorkFlowContext#limitStreaming}，使节点的限制器对流水线执行同样生效
+     * 默认不支持增量消费：等待父节点结束（此时其聚合结果已写入结果池）后按普通方式执行
+     */
+    public Flux<?> executeNodePipelined(WorkFlowContext context, Flux<?> upstream) {
+        return upstream.thenMany(context.limitStreaming(this, Flux.defer(() -> executeNodeStreaming(context))));
+    }
+
+    /**
+     * 本次执行的结果缓存键，相同的键表示可以直接复用之前的结果
+     */
+    public Object cacheKeyOf(WorkFlowContext context) {
+        return cacheKey(resolveInput(context));
+    }
+
+    /**
+     * 由输入计算缓存键，默认即输入本身（依赖其 equals/hashCode）
+     */
+    protected Object cacheKey(IN input) {
+        return input;
+    }
+
+    /**
+     * 解析本次执行的实际输入：
+     * 1) 设置了 inputResultId 时，从本次执行的结果池读取（ANY 汇聚的节点读取放行它的父节点的结果）
+     * 2) 本次执行覆盖了根节点输入时，使用覆盖值
+     * 3) 否则使用构建时给定的 input
+     */
+    protected IN resolveInput(WorkFlowContext context) {
+        if (inputResultId != null) {
+            UUID resultId = context.resultIdFor(this, inputResultId);
+            NodeResult nodeResult = context.getResultPool().get(resultId);
+            if (nodeResult == null) {
+                throw new IllegalStateException("结果池中不存在输入结果: " + resultId);
+            }
+            return (IN) nodeResult.getValue();
+        }
+        if (context.overridesInputOf(this)) {
+            return (IN) context.getRootInput();
+        }
+        return input;
+    }
 
     public abstract static class NodeBuilder<IN, B ,T extends Node<IN>> {
 
@@ -77,6 +209,15 @@ public abstract class Node<IN> {
         protected Class<?> outType;
         protected IN input;
         protected UUID inputResultId;
+        // 为 null 时使用节点类型的默认值
+        protected Boolean ioBound;
+        protected Duration timeout;
+        protected StreamReducer<?> reducer;
+        protected boolean cacheable;
+        protected NodeLimiter limiter;
+        protected boolean inline;
+        protected boolean speculative;
+        protected JoinMode joinMode;
 
         // 设置工作流管理器
         public B workFlowManager(WorkFlowManager<?> workFlowManager) {
@@ -95,6 +236,57 @@ public abstract class Node<IN> {
             this.outType = outType;
             return (B) this;
         }
+        // 声明该节点是否为 I/O 密集型（决定流式执行时使用的调度器）
+        public B ioBound(boolean ioBound) {
+            this.ioBound = ioBound;
+            return (B) this;
+        }
+
+        // 单次执行的超时时间：超时后节点被中断/取消，其下游不会再被调度
+        public B timeout(Duration timeout) {
+            this.timeout = timeout;
+            return (B) this;
+        }
+
+        // 流式执行时如何把输出聚合为写入结果池的结果，默认只保留最后一个元素
+        public B reducer(StreamReducer<?> reducer) {
+            this.reducer = reducer;
+            return (B) this;
+        }
+
+        // 允许管理器按输入复用该节点的结果（需要在管理器上配置缓存或 singleFlight）
+        public B cacheable(boolean cacheable) {
+            this.cacheable = cacheable;
+            return (B) this;
+        }
+
+        // 节点自身的并发/速率限制器，多个节点传入同一个实例即共用名额（例如共用同一个模型的 AIChatNode）
+        public B limiter(NodeLimiter limiter) {
+            this.limiter = limiter;
+            return (B) this;
+        }
+
+        // 声明为轻量的同步节点（如简单的字符串拼接）：在完成父节点的线程上直接执行，省去任务提交与调度器切换
+        // 节点会阻塞该线程，耗时或 I/O 操作不要开启；设置了超时的节点不会内联执行
+        public B inline(boolean inline) {
+            this.inline = inline;
+            return (B) this;
+        }
+
+        // 允许推测执行（需要在管理器上开启 speculation）：节点的输入不能依赖父节点的结果，且不能有副作用，
+        // 路由未命中时已开始的执行会被取消、结果被丢弃
+        public B speculative(boolean speculative) {
+            this.speculative = speculative;
+            return (B) this;
+        }
+
+        // 有多个父节点时的汇聚方式，默认 ALL；ANY 时第一个放行的父节点完成即执行，
+        // 此时若 inputResultId 指向某个父节点，实际读取的是放行本节点的那个父节点的结果
+        public B joinMode(JoinMode joinMode) {
+            this.joinMode = joinMode;
+            return (B) this;
+        }
+
         // 直接设置输入对象（与inputResultId互斥）
         public B input(IN input) {
             this.input = input;
@@ -0,0 +1,124 @@
+package com.ai.agents.orchestrator.node;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * 流式输出的增量聚合器
+ * 节点流式执行时每到达一个元素就调用一次 accumulate，流结束后 finish 的返回值作为该节点的结果写入结果池，
+ * 下游节点通过 inputResultId 读取到的就是这个聚合结果，无需再把整个流缓存一遍
+ *
+ * 每次执行都会调用 init 创建新的累加器，同一累加器只会被串行访问
+ *
+ * @param <A> 累加器类型
+ * @author han
+ * @time 2026/10/17 17:30
+ */
+
+public interface StreamReducer<A> {
+
+    A init();
+
+    /**
+     * 累加一个元素，可以直接修改并返回 acc，也可以返回新的累加器
+     */
+    A accumulate(A acc, Object item);
+
+    Object finish(A acc);
+
+    /**
+     * 只保留最后一个元素（默认行为）
+     */
+    static StreamReducer<Object> last() {
+        return new StreamReducer<>() {
+            @Override
+            public Object init() {
+                return null;
+            }
+
+            @Override
+            public Object accumulate(Object acc, Object item) {
+                return item;
+            }
+
+            @Override
+            public Object finish(Object acc) {
+                return acc;
+            }
+        };
+    }
+
+    /**
+     * 将所有元素按顺序拼接为字符串，整个流只使用一个 StringBuilder
+     */
+    static StreamReducer<StringBuilder> concat() {
+        return new StreamReducer<>() {
+            @Override
+            public StringBuilder init() {
+                return new StringBuilder();
+            }
+
+            @Override
+            public StringBuilder accumulate(StringBuilder acc, Object item) {
+                if (item instanceof CharSequence cs) {
+                    return acc.append(cs);
+                }
+                return acc.append(item);
+            }
+
+            @Override
+            public Object finish(StringBuilder acc) {
+                return acc.toString();
+            }
+        };
+    }
+
+    /**
+     * 将所有元素按顺序收集为只读列表
+     */
+    static StreamReducer<List<Object>> toList() {
+        return new StreamReducer<>() {
+            @Override
+            public List<Object> init() {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public List<Object> accumulate(List<Object> acc, Object item) {
+                acc.add(item);
+                return acc;
+            }
+
+            @Override
+            public Object finish(List<Object> acc) {
+                return Collections.unmodifiableList(acc);
+            }
+        };
+    }
+
+    /**
+     * 自定义折叠
+     * @param init 初始值
+     * @param accumulator 折叠函数
+     */
+    static <A> StreamReducer<A> fold(Supplier<A> init, BiFunction<A, Object, A> accumulator) {
+        Objects.requireNonNull(init, "init不能为null");
+        Objects.requireNonNull(accumulator, "accumulator不能为null");
+        return new StreamReducer<>() {
+            @Override
+            public A init() {
+                return init.get();
+            }
+
+            @Override
+            public A accumulate(A acc, Object item) {
+                return accumulator.apply(acc, item);
+            }
+
+            @Override
+            public Object finish(A acc) {
+                return acc;
+            }
+        };
+    }
+}
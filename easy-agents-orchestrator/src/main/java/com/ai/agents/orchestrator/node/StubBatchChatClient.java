@@ -0,0 +1,52 @@
+package com.ai.agents.orchestrator.node;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 本地桩批量客户端：不调用任何模型，按 responder 为每个请求生成回复，并记录每批的大小
+ * 用于测试与本地联调 {@link ChatBatcher}，默认回复为 "echo:" 加上请求最后一条消息的文本
+ *
+ * <pre>{@code
+ * StubBatchChatClient client = new StubBatchChatClient();
+ * ChatBatcher batcher = ChatBatcher.builder().client(client).build();
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 19:55
+ */
+
+public class StubBatchChatClient implements BatchChatClient {
+
+    private final Function<List<Message>, String> responder;
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+    public StubBatchChatClient() {
+        this(messages -> "echo:" + messages.get(messages.size() - 1).getText());
+    }
+
+    public StubBatchChatClient(Function<List<Message>, String> responder) {
+        this.responder = Objects.requireNonNull(responder, "responder不能为null");
+    }
+
+    @Override
+    public List<String> call(List<List<Message>> requests) {
+        batchSizes.add(requests.size());
+        List<String> responses = new ArrayList<>(requests.size());
+        for (List<Message> messages : requests) {
+            responses.add(responder.apply(messages));
+        }
+        return responses;
+    }
+
+    /**
+     * 已处理的各批请求数，按发出顺序
+     */
+    public List<Integer> getBatchSizes() {
+        synchronized (batchSizes) {
+            return List.copyOf(batchSizes);
+        }
+    }
+}
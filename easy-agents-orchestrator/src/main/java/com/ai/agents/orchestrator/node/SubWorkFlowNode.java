@@ -0,0 +1,190 @@
+package com.ai.agents.orchestrator.node;
+
+import com.ai.agents.orchestrator.util.NodeResult;
+import com.ai.agents.orchestrator.workflow.*;
+import reactor.core.publisher.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * 子工作流节点：把另一个 {@link WorkFlowManager} 的整张图作为一个节点嵌入
+ * 输入经 inputMapper 转换为子工作流的根节点输入，子工作流的结果池经 outputMapper 转换为本节点的输出
+ *
+ * 子工作流的执行计划只编译一次，由所有调用共享；阻塞执行时子工作流的节点提交到父工作流本次执行的执行器，
+ * 子管理器不会创建自己的线程池，等待子工作流期间也不占用执行器线程。父执行被取消或本节点超时时子执行随之取消
+ *
+ * <pre>{@code
+ * TreeNode summary = root.addChild(SubWorkFlowNode.<String>builder()
+ *     .workflow(summarizeFlow)
+ *     .output(summarizeTail.getId())
+ *     .build(root.getId()));
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 21:50
+ */
+
+public class SubWorkFlowNode<IN> extends Node<IN> {
+
+    private final WorkFlowManager<Object> workflow;
+    private final Function<IN, ?> inputMapper;
+    private final Function<Map<UUID, NodeResult>, ?> outputMapper;
+
+    private SubWorkFlowNode(SubWorkFlowNodeBuilder<IN> builder) {
+        super(builder.input);
+        this.workflow = (WorkFlowManager<Object>) builder.workflow;
+        this.inputMapper = builder.inputMapper;
+        this.outputMapper = builder.outputMapper;
+        init(builder);
+    }
+
+    private SubWorkFlowNode(SubWorkFlowNodeBuilder<IN> builder, UUID inputResultId) {
+        super(inputResultId);
+        this.workflow = (WorkFlowManager<Object>) builder.workflow;
+        this.inputMapper = builder.inputMapper;
+        this.outputMapper = builder.outputMapper;
+        init(builder);
+    }
+
+    private void init(SubWorkFlowNodeBuilder<IN> builder) {
+        this.inType = builder.inType;
+        this.outType = builder.outType;
+        this.workFlowManager = builder.workFlowManager;
+        // 本节点只是在等待子工作流
+        this.ioBound = true;
+        this.applyOptions(builder);
+    }
+
+    public WorkFlowManager<?> getWorkflow() {
+        return workflow;
+    }
+
+    /**
+     * 阻塞执行时在父工作流的执行器上启动子工作流，返回映射后的输出
+     */
+    @Override
+    public CompletableFuture<?> executeNodeAsync(WorkFlowContext context) {
+        ExecutorService executor = context.getExecutor();
+        if (executor == null) {
+            return null;
+        }
+        WorkFlowExecution execution;
+        try {
+            execution = workflow.startAsync(inputMapper.apply(resolveInput(context)), executor);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Object> result = execution.future().thenApply(outputMapper);
+        // 本节点被取消（父执行取消、超时）时取消子执行；子执行已结束时无效果
+        result.whenComplete((v, ex) -> {
+            if (ex != null) {
+                execution.cancel();
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public <OUT> OUT executeNodeBlocking(WorkFlowContext context) {
+        CompletableFuture<?> async = executeNodeAsync(context);
+        return async == null ? executeBlocking(resolveInput(context)) : (OUT) join(async);
+    }
+
+    /**
+     * 单独调用（如作为 {@link MapNode} 的子节点）时使用子管理器自己的执行器
+     */
+    @Override
+    public <OUT> OUT executeBlocking(IN input) {
+        return (OUT) join(workflow.startAsync(inputMapper.apply(input)).future().thenApply(outputMapper));
+    }
+
+    /**
+     * 流式执行子工作流，子工作流结束后输出一次映射后的结果
+     */
+    @Override
+    public Flux<?> executeStreaming(IN input) {
+        return Flux.defer(() -> workflow.streamEvents(inputMapper.apply(input))
+                .ofType(WorkFlowEvent.NodeCompleted.class)
+                .collectMap(WorkFlowEvent.NodeCompleted::nodeId, completed -> new NodeResult(completed.result()))
+                .mapNotNull(pool -> outputMapper.apply(Collections.unmodifiableMap(pool)))
+                .flux());
+    }
+
+    private static Object join(CompletableFuture<?> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 静态方法获取建造器
+     */
+
+    public static <IN> SubWorkFlowNodeBuilder<IN> builder() {
+        return new SubWorkFlowNodeBuilder<>();
+    }
+
+    public static class SubWorkFlowNodeBuilder<IN> extends NodeBuilder<IN, SubWorkFlowNodeBuilder<IN>, SubWorkFlowNode<IN>> {
+        private WorkFlowManager<?> workflow;
+        private Function<IN, ?> inputMapper = Function.identity();
+        private Function<Map<UUID, NodeResult>, ?> outputMapper = Function.identity();
+
+        // 被嵌入的子工作流，可以同时被多个子工作流节点引用
+        public SubWorkFlowNodeBuilder<IN> workflow(WorkFlowManager<?> workflow) {
+            this.workflow = workflow;
+            return this;
+        }
+
+        // 本节点输入 -> 子工作流根节点输入，默认原样传入
+        public SubWorkFlowNodeBuilder<IN> inputMapper(Function<IN, ?> inputMapper) {
+            this.inputMapper = inputMapper;
+            return this;
+        }
+
+        // 子工作流结果池 -> 本节点输出，默认输出整个结果池
+        public SubWorkFlowNodeBuilder<IN> outputMapper(Function<Map<UUID, NodeResult>, ?> outputMapper) {
+            this.outputMapper = outputMapper;
+            return this;
+        }
+
+        // 以子工作流中某个节点的结果作为本节点输出（该节点被跳过时输出 null）
+        public SubWorkFlowNodeBuilder<IN> output(UUID nodeId) {
+            Objects.requireNonNull(nodeId, "nodeId不能为null");
+            return outputMapper(pool -> {
+                NodeResult result = pool.get(nodeId);
+                return result == null ? null : result.getValue();
+            });
+        }
+
+        @Override
+        protected void validate() {
+            super.validate();
+            Objects.requireNonNull(workflow, "workflow不能为null");
+            Objects.requireNonNull(inputMapper, "inputMapper不能为null");
+            Objects.requireNonNull(outputMapper, "outputMapper不能为null");
+        }
+
+        @Override
+        public SubWorkFlowNode<IN> build(UUID inputResultId) {
+            // 先验证参数
+            validate();
+            this.inputResultId(inputResultId);
+            return new SubWorkFlowNode<>(this, inputResultId);
+        }
+
+        @Override
+        public SubWorkFlowNode<IN> build(IN input) {
+            // 先验证参数
+            validate();
+            this.input(input);
+            return new SubWorkFlowNode<>(this);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.ai.agents.orchestrator.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 定长、线程安全的位图
+ * 基于 AtomicLongArray，每个 long 存放 64 位，置位使用 CAS，适合多线程并发标记
+ *
+ * @author han
+ * @time 2026/10/17 11:05
+ */
+
+public final class AtomicBitSet {
+
+    private final AtomicLongArray words;
+    private final int size;
+
+    public AtomicBitSet(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * 置位
+     * @return 该位此前是否为 0（即本次调用是否真正改变了它）
+     */
+    public boolean set(int index) {
+        int w = index >>> 6;
+        long mask = 1L << index;
+        long old;
+        do {
+            old = words.get(w);
+            if ((old & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(w, old, old | mask));
+        return true;
+    }
+
+    public boolean get(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
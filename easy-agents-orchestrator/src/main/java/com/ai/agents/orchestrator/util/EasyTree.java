@@ -27,6 +27,8 @@ public class EasyTree implements Iterable<Node> {
         private List<TreeNode> parentNodes;
         // 在这里, 子节点上写一些 = xx 的路由选项, 用于路由, 并且可以 中间加&&, key 为 子节点
         private Map<TreeNode, RouteOption> childrenWithRouterOptions;
+        // 以流水线方式连接的子节点：流式执行时与父节点同时启动，直接消费父节点的实时输出
+        private Set<TreeNode> pipelinedChildren;
 
         public Node getElement() {
             return element;
@@ -44,6 +46,20 @@ public class EasyTree implements Iterable<Node> {
             return childrenWithRouterOptions.keySet().stream().toList();
         }
 
+        /**
+         * 子节点及其路由选项的只读视图（value 可能为 null，表示无条件放行）
+         */
+        public Map<TreeNode, RouteOption> getChildrenWithRouteOptions() {
+            return Collections.unmodifiableMap(childrenWithRouterOptions);
+        }
+
+        /**
+         * child 是否以流水线方式连接到本节点
+         */
+        public boolean isPipelinedChild(TreeNode child) {
+            return pipelinedChildren.contains(child);
+        }
+
         public List<TreeNode> getNextNodes(Map<UUID, NodeResult> resultPool) {
             // 如果没有路由选项，或者路由选项为空，则默认所有子节点都可以作为下一个节点。
             return childrenWithRouterOptions.entrySet().stream().filter((entry) -> {
@@ -60,8 +76,10 @@ public class EasyTree implements Iterable<Node> {
 
         public TreeNode() {
             this.id = UUID.randomUUID();
-            this.childrenWithRouterOptions = new HashMap<>();
+            // LinkedHashMap 保持子节点的添加顺序
+            this.childrenWithRouterOptions = new LinkedHashMap<>();
             this.parentNodes = new ArrayList<>();
+            this.pipelinedChildren = new HashSet<>();
         }
         public TreeNode(Node element) {
             this();
@@ -99,6 +117,21 @@ public class EasyTree implements Iterable<Node> {
             return childNode;
         }
 
+        /**
+         * 以流水线方式添加子节点：流式执行时子节点不等父节点结束，而是与父节点同时启动，
+         * 以父节点的实时输出流作为输入（阻塞执行时与普通子节点相同）
+         * 流水线子节点只能有这一个父节点，且该边上不能有路由选项
+         */
+        public TreeNode addPipelinedChild(TreeNode childNode) {
+            addChild(childNode);
+            pipelinedChildren.add(childNode);
+            return childNode;
+        }
+
+        public TreeNode addPipelinedChild(Node child) {
+            return addPipelinedChild(new TreeNode(child));
+        }
+
 
         // 移除子节点
 //        public boolean removeChild(TreeNode child) {
@@ -283,17 +316,23 @@ public class EasyTree implements Iterable<Node> {
         return elements.iterator();
     }
 
-    // 前序遍历收集元素
+    // 前序遍历收集元素（显式栈，长链不会栈溢出）
     private void preOrderTraversal(TreeNode node, List<Node> elements) {
         if (node == null) {
             return;
         }
-        if (node.element != null) {
-            elements.add(node.element);
-        }
-        // 按顺序遍历子节点
-        for (TreeNode child : node.getChildren()) {
-            preOrderTraversal(child, elements);
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            TreeNode current = stack.pop();
+            if (current.element != null) {
+                elements.add(current.element);
+            }
+            // 逆序入栈，保证按顺序遍历子节点
+            List<TreeNode> children = current.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
         }
     }
 
@@ -404,19 +443,23 @@ public class EasyTree implements Iterable<Node> {
             System.out.println("Empty tree");
             return;
         }
-        printTreeNode(root, 0);
-    }
-
-    private void printTreeNode(TreeNode node, int depth) {
-        // 打印当前节点（根据深度缩进）
-        if (node.element != null) {
-            System.out.println("  ".repeat(depth) + "├─ " + node.element);
-        } else {
-            System.out.println("  ".repeat(depth) + "├─ " + "ROOT");
-        }
-        // 递归打印子节点
-        for (TreeNode child : node.getChildren()) {
-            printTreeNode(child, depth + 1);
+        // 显式栈保存待打印的节点及其深度，长链不会栈溢出
+        Deque<Map.Entry<TreeNode, Integer>> stack = new ArrayDeque<>();
+        stack.push(Map.entry(root, 0));
+        while (!stack.isEmpty()) {
+            Map.Entry<TreeNode, Integer> entry = stack.pop();
+            TreeNode node = entry.getKey();
+            int depth = entry.getValue();
+            // 打印当前节点（根据深度缩进）
+            if (node.element != null) {
+                System.out.println("  ".repeat(depth) + "├─ " + node.element);
+            } else {
+                System.out.println("  ".repeat(depth) + "├─ " + "ROOT");
+            }
+            List<TreeNode> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(Map.entry(children.get(i), depth + 1));
+            }
         }
     }
 
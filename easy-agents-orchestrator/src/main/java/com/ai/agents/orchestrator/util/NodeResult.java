@@ -12,12 +12,36 @@ public class NodeResult {
 
     public NodeResult(Object value) {
         this.value = value;
-        this.type = value.getClass();
+        // 节点允许输出 null（如流式节点没有任何输出），此时类型为 null
+        this.type = value == null ? null : value.getClass();
+    }
+
+    /**
+     * 供值不在堆上的子类使用，见 {@link OffHeapNodeResult}
+     */
+    protected NodeResult(Class<?> type) {
+        this.value = null;
+        this.type = type;
     }
 
     public Object getValue() { return value; }
     public Class<?> getType() { return type; }
 
+    /**
+     * 增加一个引用，持有者用完后需调用 {@link #release()}；堆上的结果无需引用计数，直接返回自身
+     */
+    public NodeResult retain() {
+        return this;
+    }
+
+    /**
+     * 减少一个引用，最后一个引用释放后结果的存储被回收、不能再读取
+     * @return 本次调用是否回收了存储（堆上的结果总是返回 false，由 GC 回收）
+     */
+    public boolean release() {
+        return false;
+    }
+
     @Override
     public String toString() {
         return "NodeResult{" +
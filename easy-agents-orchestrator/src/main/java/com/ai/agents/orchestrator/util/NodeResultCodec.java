@@ -0,0 +1,516 @@
+package com.ai.agents.orchestrator.util;
+
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 节点结果的二进制编解码器
+ * 编码结果以格式版本开头，之后每个值都带一个类型标签：null、字符串、基本类型包装类、byte[]、ByteBuffer、
+ * List/Set/Map（元素递归编码）内置支持，record 与普通对象需通过 {@link Builder} 以唯一编号注册。
+ * 整数与长度使用变长编码，小数值只占一两个字节
+ *
+ * 解码直接读取传入的 ByteBuffer（堆内或堆外均可），其中的 ByteBuffer 值解码为源缓冲区的只读切片，不复制数据，
+ * 因此源缓冲区在解码结果使用期间必须保持有效；byte[] 值会复制
+ *
+ * <pre>{@code
+ * NodeResultCodec codec = NodeResultCodec.builder()
+ *     .registerRecord(1, Answer.class)
+ *     .build();
+ * ByteBuffer bytes = codec.encode(new NodeResult(answer));
+ * NodeResult copy = codec.decode(bytes);
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 23:40
+ */
+
+public final class NodeResultCodec {
+
+    // 格式版本，写在每个编码结果的首字节
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHAR = 9;
+    private static final byte BYTES = 10;
+    private static final byte BUFFER = 11;
+    private static final byte LIST = 12;
+    private static final byte SET = 13;
+    private static final byte MAP = 14;
+    // 注册类型，标签后跟注册编号
+    private static final byte CUSTOM = 15;
+
+    private static final NodeResultCodec STANDARD = builder().build();
+
+    private final Map<Class<?>, Registration<?>> byType;
+    private final Map<Integer, Registration<?>> byId;
+
+    private NodeResultCodec(Builder builder) {
+        this.byType = Map.copyOf(builder.byType);
+        this.byId = Map.copyOf(builder.byId);
+    }
+
+    /**
+     * 只支持内置类型的编解码器
+     */
+    public static NodeResultCodec standard() {
+        return STANDARD;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 编码节点结果
+     * @return 堆内缓冲区，position 为 0，limit 为编码长度
+     * @throws IllegalArgumentException 结果中含有未注册的类型
+     */
+    public ByteBuffer encode(NodeResult result) {
+        Output out = new Output(this);
+        out.writeByte(VERSION);
+        out.writeValue(result.getValue());
+        return out.buffer.flip();
+    }
+
+    /**
+     * 从 buffer 的当前位置解码一个节点结果，解码后 position 移到该结果之后
+     * @throws IllegalArgumentException 版本不支持或数据损坏
+     */
+    public NodeResult decode(ByteBuffer buffer) {
+        Input in = new Input(this, buffer);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的编码版本: " + version);
+        }
+        return new NodeResult(in.readValue());
+    }
+
+    /**
+     * 注册类型的编解码逻辑，字段按 write 的顺序写入、按同样的顺序读出
+     */
+    public interface TypeCodec<T> {
+
+        void write(T value, Output out);
+
+        T read(Input in);
+    }
+
+    /**
+     * 编码输出：按需扩容的堆内缓冲区
+     */
+    public static final class Output {
+
+        private final NodeResultCodec codec;
+        private ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        private Output(NodeResultCodec codec) {
+            this.codec = codec;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                larger.put(buffer.flip());
+                buffer = larger;
+            }
+        }
+
+        public Output writeByte(int value) {
+            ensure(1);
+            buffer.put((byte) value);
+            return this;
+        }
+
+        public Output writeBoolean(boolean value) {
+            return writeByte(value ? 1 : 0);
+        }
+
+        // 变长编码，负数经 zigzag 变换后同样紧凑
+        public Output writeInt(int value) {
+            return writeVarLong(Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+        }
+
+        public Output writeLong(long value) {
+            return writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        public Output writeDouble(double value) {
+            ensure(8);
+            buffer.putDouble(value);
+            return this;
+        }
+
+        public Output writeFloat(float value) {
+            ensure(4);
+            buffer.putFloat(value);
+            return this;
+        }
+
+        public Output writeString(String value) {
+            return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Output writeBytes(byte[] value) {
+            writeLength(value.length);
+            ensure(value.length);
+            buffer.put(value);
+            return this;
+        }
+
+        // 写入 value 的剩余内容，不改变其 position
+        public Output writeBuffer(ByteBuffer value) {
+            writeLength(value.remaining());
+            ensure(value.remaining());
+            buffer.put(value.duplicate());
+            return this;
+        }
+
+        /**
+         * 写入一个带类型标签的值，用于注册类型中嵌套的任意字段
+         */
+        public Output writeValue(Object value) {
+            if (value == null) {
+                return writeByte(NULL);
+            }
+            // 带方法体的枚举常量是匿名子类，按声明的枚举类型查找
+            Registration<?> registration = codec.byType.get(value instanceof Enum<?> e ? e.getDeclaringClass() : value.getClass());
+            if (registration != null) {
+                writeByte(CUSTOM);
+                writeLength(registration.id);
+                registration.write(value, this);
+                return this;
+            }
+            if (value instanceof String s) {
+                return writeByte(STRING).writeString(s);
+            }
+            if (value instanceof Integer i) {
+                return writeByte(INT).writeInt(i);
+            }
+            if (value instanceof Long l) {
+                return writeByte(LONG).writeLong(l);
+            }
+            if (value instanceof Double d) {
+                return writeByte(DOUBLE).writeDouble(d);
+            }
+            if (value instanceof Float f) {
+                return writeByte(FLOAT).writeFloat(f);
+            }
+            if (value instanceof Boolean b) {
+                return writeByte(BOOLEAN).writeBoolean(b);
+            }
+            if (value instanceof Short s) {
+                return writeByte(SHORT).writeInt(s);
+            }
+            if (value instanceof Byte b) {
+                return writeByte(BYTE).writeByte(b);
+            }
+            if (value instanceof Character c) {
+                return writeByte(CHAR).writeInt(c);
+            }
+            if (value instanceof byte[] bytes) {
+                return writeByte(BYTES).writeBytes(bytes);
+            }
+            if (value instanceof ByteBuffer b) {
+                return writeByte(BUFFER).writeBuffer(b);
+            }
+            if (value instanceof Map<?, ?> map) {
+                writeByte(MAP);
+                writeLength(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+                return this;
+            }
+            if (value instanceof Collection<?> collection) {
+                writeByte(value instanceof Set ? SET : LIST);
+                writeLength(collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+                return this;
+            }
+            throw new IllegalArgumentException("不支持编码的类型: " + value.getClass().getName()
+                    + "，需要通过 NodeResultCodec.builder() 注册");
+        }
+
+        private void writeLength(int length) {
+            writeVarLong(length);
+        }
+
+        private Output writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+            return this;
+        }
+    }
+
+    /**
+     * 解码输入：直接读取给定的缓冲区
+     */
+    public static final class Input {
+
+        private final NodeResultCodec codec;
+        private final ByteBuffer buffer;
+
+        private Input(NodeResultCodec codec, ByteBuffer buffer) {
+            this.codec = codec;
+            this.buffer = buffer;
+        }
+
+        public byte readByte() {
+            return buffer.get();
+        }
+
+        public boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+
+        public int readInt() {
+            int raw = (int) readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        public long readLong() {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        public double readDouble() {
+            return buffer.getDouble();
+        }
+
+        public float readFloat() {
+            return buffer.getFloat();
+        }
+
+        public String readString() {
+            int length = readLength();
+            if (buffer.hasArray()) {
+                String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                return value;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public byte[] readBytes() {
+            byte[] bytes = new byte[readLength()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        // 源缓冲区的只读切片，不复制数据
+        public ByteBuffer readBuffer() {
+            int length = readLength();
+            ByteBuffer slice = buffer.slice(buffer.position(), length).asReadOnlyBuffer();
+            buffer.position(buffer.position() + length);
+            return slice;
+        }
+
+        /**
+         * 读取一个带类型标签的值
+         */
+        public Object readValue() {
+            byte tag = buffer.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case INT:
+                    return readInt();
+                case LONG:
+                    return readLong();
+                case DOUBLE:
+                    return readDouble();
+                case FLOAT:
+                    return readFloat();
+                case BOOLEAN:
+                    return readBoolean();
+                case SHORT:
+                    return (short) readInt();
+                case BYTE:
+                    return readByte();
+                case CHAR:
+                    return (char) readInt();
+                case BYTES:
+                    return readBytes();
+                case BUFFER:
+                    return readBuffer();
+                case LIST: {
+                    int size = readLength();
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case SET: {
+                    int size = readLength();
+                    Set<Object> set = new LinkedHashSet<>();
+                    for (int i = 0; i < size; i++) {
+                        set.add(readValue());
+                    }
+                    return set;
+                }
+                case MAP: {
+                    int size = readLength();
+                    Map<Object, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        map.put(readValue(), readValue());
+                    }
+                    return map;
+                }
+                case CUSTOM: {
+                    int id = readLength();
+                    Registration<?> registration = codec.byId.get(id);
+                    if (registration == null) {
+                        throw new IllegalArgumentException("未注册的类型编号: " + id);
+                    }
+                    return registration.codec.read(this);
+                }
+                default:
+                    throw new IllegalArgumentException("无法识别的类型标签: " + tag);
+            }
+        }
+
+        private int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > buffer.capacity()) {
+                throw new IllegalArgumentException("数据损坏，长度越界: " + length);
+            }
+            return (int) length;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("数据损坏，变长整数过长");
+        }
+    }
+
+    private record Registration<T>(int id, Class<T> type, TypeCodec<T> codec) {
+
+        void write(Object value, Output out) {
+            codec.write(type.cast(value), out);
+        }
+    }
+
+    public static final class Builder {
+
+        private final Map<Class<?>, Registration<?>> byType = new HashMap<>();
+        private final Map<Integer, Registration<?>> byId = new HashMap<>();
+
+        /**
+         * 注册一个类型，按类型精确匹配（不匹配子类）
+         * @param id 类型编号，写入编码结果，一经使用不能更改含义
+         */
+        public <T> Builder register(int id, Class<T> type, TypeCodec<T> codec) {
+            Objects.requireNonNull(type, "type不能为null");
+            Objects.requireNonNull(codec, "codec不能为null");
+            if (id < 0) {
+                throw new IllegalArgumentException("类型编号不能为负数: " + id);
+            }
+            if (byId.containsKey(id)) {
+                throw new IllegalArgumentException("类型编号已被注册: " + id);
+            }
+            if (byType.containsKey(type)) {
+                throw new IllegalArgumentException("类型已被注册: " + type.getName());
+            }
+            Registration<T> registration = new Registration<>(id, type, codec);
+            byId.put(id, registration);
+            byType.put(type, registration);
+            return this;
+        }
+
+        /**
+         * 注册一个 record：按声明顺序写入各组件（组件值须可编码），解码时调用规范构造器
+         */
+        public <R extends Record> Builder registerRecord(int id, Class<R> type) {
+            RecordComponent[] components = type.getRecordComponents();
+            Method[] accessors = new Method[components.length];
+            Class<?>[] types = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                accessors[i] = components[i].getAccessor();
+                accessors[i].setAccessible(true);
+                types[i] = components[i].getType();
+            }
+            Constructor<R> constructor;
+            try {
+                constructor = type.getDeclaredConstructor(types);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("找不到规范构造器: " + type.getName(), e);
+            }
+            constructor.setAccessible(true);
+            return register(id, type, new TypeCodec<>() {
+                @Override
+                public void write(R value, Output out) {
+                    try {
+                        for (Method accessor : accessors) {
+                            out.writeValue(accessor.invoke(value));
+                        }
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException("读取 record 组件失败: " + type.getName(), e);
+                    }
+                }
+
+                @Override
+                public R read(Input in) {
+                    Object[] args = new Object[accessors.length];
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = in.readValue();
+                    }
+                    try {
+                        return constructor.newInstance(args);
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException("构造 record 失败: " + type.getName(), e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 注册一个枚举，按常量名编码，调整常量顺序不影响已编码的数据
+         */
+        public <E extends Enum<E>> Builder registerEnum(int id, Class<E> type) {
+            return register(id, type, new TypeCodec<>() {
+                @Override
+                public void write(E value, Output out) {
+                    out.writeString(value.name());
+                }
+
+                @Override
+                public E read(Input in) {
+                    return Enum.valueOf(type, in.readString());
+                }
+            });
+        }
+
+        public NodeResultCodec build() {
+            return new NodeResultCodec(this);
+        }
+    }
+}
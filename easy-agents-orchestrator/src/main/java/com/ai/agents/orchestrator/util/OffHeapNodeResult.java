@@ -0,0 +1,133 @@
+package com.ai.agents.orchestrator.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 值存放在堆外的节点结果
+ * 值以 {@link NodeResultCodec} 编码后存入直接内存，或写入临时文件并以内存映射方式读取；
+ * 每次 {@link #getValue()} 从堆外解码出一份新的值（其中的 ByteBuffer 值是堆外数据的只读切片，不复制）
+ *
+ * 创建时引用计数为 1（由结果池持有），计数归零时丢弃堆外数据并删除临时文件，之后不能再读取；
+ * 直接内存随缓冲区对象被回收而释放，仍被解码出的切片引用时不会提前释放
+ *
+ * @author han
+ * @time 2026/10/17 23:55
+ */
+
+public final class OffHeapNodeResult extends NodeResult {
+
+    private final NodeResultCodec codec;
+    private final int size;
+    // 内存映射时的临时文件，直接内存时为 null
+    private final Path file;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    private volatile ByteBuffer payload;
+
+    private OffHeapNodeResult(Class<?> type, NodeResultCodec codec, ByteBuffer payload, Path file) {
+        super(type);
+        this.codec = codec;
+        this.size = payload.remaining();
+        this.payload = payload;
+        this.file = file;
+    }
+
+    /**
+     * 把已编码的结果复制到直接内存
+     * @param encoded codec 编码的结果，读取其剩余内容
+     * @param type 原始值的类型
+     */
+    public static OffHeapNodeResult direct(ByteBuffer encoded, Class<?> type, NodeResultCodec codec) {
+        ByteBuffer payload = ByteBuffer.allocateDirect(encoded.remaining());
+        payload.put(encoded.duplicate()).flip();
+        return new OffHeapNodeResult(type, codec, payload.asReadOnlyBuffer(), null);
+    }
+
+    /**
+     * 把已编码的结果写入 dir 下的临时文件并只读映射，释放时删除该文件
+     */
+    public static OffHeapNodeResult mapped(ByteBuffer encoded, Class<?> type, NodeResultCodec codec, Path dir) throws IOException {
+        Path file = Files.createTempFile(dir, "node-result-", ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer source = encoded.duplicate();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+            // 映射在通道关闭后仍然有效
+            ByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY, 0, encoded.remaining());
+            return new OffHeapNodeResult(type, codec, payload, file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    @Override
+    public Object getValue() {
+        ByteBuffer p = payload;
+        if (p == null) {
+            throw new IllegalStateException("结果已释放");
+        }
+        return codec.decode(p.duplicate()).getValue();
+    }
+
+    /**
+     * 编码后占用的堆外字节数
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isMapped() {
+        return file != null;
+    }
+
+    public boolean isReleased() {
+        return payload == null;
+    }
+
+    @Override
+    public OffHeapNodeResult retain() {
+        int count;
+        do {
+            count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("结果已释放");
+            }
+        } while (!refCnt.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        int left = refCnt.decrementAndGet();
+        if (left > 0) {
+            return false;
+        }
+        if (left < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("结果已释放");
+        }
+        payload = null;
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // 映射仍被占用时部分平台不允许删除，留给临时目录清理
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapNodeResult{" +
+                "size=" + size +
+                ", type=" + getType() +
+                ", mapped=" + isMapped() +
+                '}';
+    }
+}
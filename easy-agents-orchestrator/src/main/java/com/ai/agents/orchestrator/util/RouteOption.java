@@ -19,15 +19,43 @@ import java.util.function.Predicate;
  *     .then(nextNode);
  * }</pre>
  *
+ * 通过 dependsOn 声明条件读取了哪些节点的结果后，引擎在每次执行中只求值一次：
+ * 最后一个依赖节点完成时立即求值并记住结论，同一个实例设置在多条边上时共享该结论
+ * <pre>{@code
+ * RouteOption isLong = RouteOption
+ *     .when(resultPool -> ((String) resultPool.get(nodeA).getValue()).length() > 100)
+ *     .dependsOn(nodeA)
+ *     .build();
+ * nodeA.addChild(summarize, isLong);
+ * nodeA.addChild(translate, isLong);
+ * }</pre>
+ *
  * @author han
  * @time 2025/7/29 17:12
  */
 public class RouteOption {
 
     private final Predicate<Map<UUID, NodeResult>> condition;
+    // 条件读取的节点，为 null 时未声明，每次结算都重新求值
+    private final Set<UUID> dependencies;
 
-    private RouteOption(Predicate<Map<UUID, NodeResult>> condition) {
+    private RouteOption(Predicate<Map<UUID, NodeResult>> condition, Set<UUID> dependencies) {
         this.condition = condition;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * @return 条件依赖的节点，未声明时为 null
+     */
+    public Set<UUID> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * 是否声明了依赖：声明了依赖的条件在每次执行中只求值一次
+     */
+    public boolean hasDeclaredDependencies() {
+        return dependencies != null;
     }
 
     /**
@@ -57,6 +85,7 @@ public class RouteOption {
      */
     public static class Builder {
         private Predicate<Map<UUID, NodeResult>> combinedCondition;
+        private Set<UUID> dependencies;
 
         private Builder(Predicate<Map<UUID, NodeResult>> condition) {
             this.combinedCondition = condition;
@@ -84,8 +113,26 @@ public class RouteOption {
             return this;
         }
 
+        /**
+         * 声明条件读取了哪些节点的结果，可多次调用累加
+         * 条件只能依赖这些节点的结果，否则记住的结论可能与依赖完成后的结果不一致
+         *
+         * @param nodeIds 依赖的节点 UUID
+         * @return 当前构建器实例。
+         */
+        public Builder dependsOn(UUID... nodeIds) {
+            if (this.dependencies == null) {
+                this.dependencies = new LinkedHashSet<>();
+            }
+            for (UUID nodeId : nodeIds) {
+                this.dependencies.add(Objects.requireNonNull(nodeId, "nodeId不能为null"));
+            }
+            return this;
+        }
+
         public RouteOption build() {
-            return new RouteOption(this.combinedCondition);
+            return new RouteOption(this.combinedCondition,
+                    this.dependencies == null ? null : Collections.unmodifiableSet(new LinkedHashSet<>(this.dependencies)));
         }
     }
 }
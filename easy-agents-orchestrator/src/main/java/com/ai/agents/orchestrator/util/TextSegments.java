@@ -0,0 +1,77 @@
+package com.ai.agents.orchestrator.util;
+
+import reactor.core.publisher.*;
+
+import java.util.*;
+
+/**
+ * 文本流切分工具
+ * 把逐 token 到达的文本流重新切分为完整的句子，供流水线下游按句处理
+ *
+ * @author han
+ * @time 2026/10/17 18:10
+ */
+
+public final class TextSegments {
+
+    // 中文句末标点与换行，遇到即断句
+    private static final String HARD_DELIMITERS = "。！？；\n";
+    // 英文句末标点，需要后面跟空白才断句，避免把 3.14 之类拆开
+    private static final String SOFT_DELIMITERS = ".!?;";
+
+    private TextSegments() {
+    }
+
+    /**
+     * 将文本流按句切分，流结束时剩余的非空白文本作为最后一句输出
+     * 每个句子已去除首尾空白
+     * @param text 文本流，元素按 toString() 拼接
+     * @return 句子流
+     */
+    public static Flux<String> sentences(Flux<?> text) {
+        return Flux.defer(() -> {
+            // 每次订阅独立的缓冲区；concatMapIterable 串行调用，无需同步
+            StringBuilder pending = new StringBuilder();
+            int[] scanned = new int[1];
+            return text
+                    .concatMapIterable(item -> {
+                        pending.append(item);
+                        return drain(pending, scanned);
+                    })
+                    .concatWith(Mono.fromSupplier(() -> {
+                        String rest = pending.toString().strip();
+                        return rest.isEmpty() ? null : rest;
+                    }));
+        });
+    }
+
+    /**
+     * 取出 pending 中已经完整的句子，scanned 记录已扫描过的位置，避免长句被反复扫描
+     */
+    private static List<String> drain(StringBuilder pending, int[] scanned) {
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        int i = scanned[0];
+        for (; i < pending.length(); i++) {
+            char c = pending.charAt(i);
+            boolean end = HARD_DELIMITERS.indexOf(c) >= 0;
+            if (!end && SOFT_DELIMITERS.indexOf(c) >= 0) {
+                if (i + 1 == pending.length()) {
+                    // 还不知道后面是否是空白，等下一段文本到达后再判断
+                    break;
+                }
+                end = Character.isWhitespace(pending.charAt(i + 1));
+            }
+            if (end) {
+                String sentence = pending.substring(start, i + 1).strip();
+                if (!sentence.isEmpty()) {
+                    sentences.add(sentence);
+                }
+                start = i + 1;
+            }
+        }
+        pending.delete(0, start);
+        scanned[0] = i - start;
+        return sentences;
+    }
+}
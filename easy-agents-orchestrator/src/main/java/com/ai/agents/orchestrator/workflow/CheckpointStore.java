@@ -0,0 +1,87 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.util.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 执行检查点存储
+ * 阻塞执行中每个节点成功完成后，其结果按 (runId, 节点键) 追加到存储中；进程崩溃或执行失败后，
+ * 以同一个 runId 调用 {@link WorkFlowManager#resumeAsync} 即可从已完成的节点继续，已记录结果的节点不会再次执行。
+ * 只有以 resumeAsync 启动的执行会被记录；执行成功结束后该 runId 的记录被清除，
+ * 失败后不再恢复的执行需调用 {@link #discard} 或 {@link #expire} 清除
+ *
+ * 节点 UUID 每次构建工作流都会重新生成，不能跨进程使用，因此记录以节点键区分：
+ * 节点键由节点在执行计划中的下标（广度优先顺序）与节点类型组成，由同一段代码构建的工作流在重启后得到相同的键；
+ * 工作流结构改变后旧记录不再匹配，对应的节点会重新执行
+ *
+ * <pre>{@code
+ * WorkFlowManager manager = WorkFlowManager.builder()
+ *     .checkpointStore(CheckpointStore.file(Path.of("data/checkpoints.log")))
+ *     .build();
+ * manager.resumeBlocking(orderId, input);
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 23:20
+ */
+
+public interface CheckpointStore {
+
+    /**
+     * 记录一个已完成节点的结果
+     */
+    void record(String runId, String nodeKey, NodeResult result);
+
+    /**
+     * @return 该 runId 已记录的节点结果（节点键 -> 结果），没有记录时为空表
+     */
+    Map<String, NodeResult> load(String runId);
+
+    /**
+     * 执行成功结束，清除该 runId 的记录
+     */
+    void complete(String runId);
+
+    /**
+     * 放弃一个不再恢复的执行，清除其记录
+     */
+    default void discard(String runId) {
+        complete(runId);
+    }
+
+    /**
+     * @return 有记录且尚未结束的执行
+     */
+    Set<String> runIds();
+
+    /**
+     * 清除最后一条记录早于 maxAge 的执行（失败后一直未恢复）
+     * @return 清除的执行数
+     */
+    int expire(Duration maxAge);
+
+    /**
+     * 进程内存储，只能从执行失败中恢复，不能跨进程
+     */
+    static CheckpointStore inMemory() {
+        return new InMemoryCheckpointStore();
+    }
+
+    /**
+     * 追加写入的单文件日志，每条记录写入后刷盘，结果只能包含内置类型；更多选项见 {@link FileCheckpointStore#builder()}
+     * @param path 日志文件路径，不存在时创建
+     */
+    static FileCheckpointStore file(Path path) {
+        return FileCheckpointStore.builder().path(path).build();
+    }
+
+    /**
+     * 追加写入的单文件日志，结果按 codec 编码（可在其中注册自定义类型）
+     */
+    static FileCheckpointStore file(Path path, NodeResultCodec codec) {
+        return FileCheckpointStore.builder().path(path).codec(codec).build();
+    }
+}
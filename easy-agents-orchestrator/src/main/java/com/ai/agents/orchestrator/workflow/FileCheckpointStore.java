@@ -0,0 +1,399 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写入的单文件检查点日志
+ * 每条记录为一帧：[长度 int][CRC32 int][内容]，内容为记录类型、写入时间、runId、节点键与 {@link NodeResultCodec} 编码的结果值，
+ * 结果中含有编解码器不支持的类型时不会被记录（恢复时该节点重新执行）
+ *
+ * 内存中只保留各条记录在文件中的位置，{@link #load} 时才从文件读取并解码结果。
+ * 打开时回放整个日志重建索引：遇到不完整或校验失败的帧（写入中途崩溃）即截断到最后一条完整记录；
+ * 已成功结束或放弃的执行只追加一条结束标记，回放后若存在这类失效记录（或超过保留期的执行）则压缩重写日志
+ *
+ * 开启 sync 时每条记录在 record 返回前刷盘，并发写入的记录合并为一次刷盘；
+ * 关闭时只写入操作系统缓存，进程崩溃不会丢失记录，机器掉电可能丢失最近的记录（对应节点恢复时重新执行）
+ *
+ * <pre>{@code
+ * FileCheckpointStore store = FileCheckpointStore.builder()
+ *     .path(Path.of("data/checkpoints.log"))
+ *     .retention(Duration.ofDays(7))
+ *     .build();
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 23:25
+ */
+
+public class FileCheckpointStore implements CheckpointStore, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileCheckpointStore.class);
+
+    private static final byte RESULT = 1;
+    private static final byte COMPLETE = 2;
+
+    private final Path path;
+    private final boolean sync;
+    private final NodeResultCodec codec;
+    // runId -> 该执行各节点记录在文件中的位置
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    // 已写入的字节数，由 this 保护
+    private long written;
+    // 已刷盘的字节数，由 syncLock 保护；持锁刷盘期间到达的写入在锁释放后通常已被覆盖
+    private final Object syncLock = new Object();
+    private long forced;
+
+    /**
+     * 一条记录在文件中的位置
+     */
+    private record Frame(long position, int length) {
+    }
+
+    private static final class Run {
+        final Map<String, Frame> frames = new ConcurrentHashMap<>();
+        volatile long lastRecordAt;
+    }
+
+    private FileCheckpointStore(Builder builder) {
+        this.path = builder.path;
+        this.sync = builder.sync;
+        this.codec = builder.codec;
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            boolean stale = replay();
+            if (builder.retention != null) {
+                stale |= runs.keySet().removeAll(expired(builder.retention));
+            }
+            if (stale) {
+                rewrite();
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.written = channel.size();
+            this.forced = written;
+            channel.position(written);
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开检查点日志失败: " + path, e);
+        }
+    }
+
+    @Override
+    public void record(String runId, String nodeKey, NodeResult result) {
+        ByteBuffer frame = encode(RESULT, runId, nodeKey, result);
+        int length = frame.remaining();
+        long position = append(frame, sync);
+        Run run = runs.computeIfAbsent(runId, id -> new Run());
+        run.frames.put(nodeKey, new Frame(position, length));
+        run.lastRecordAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public Map<String, NodeResult> load(String runId) {
+        Run run = runs.get(runId);
+        if (run == null) {
+            return Map.of();
+        }
+        Map<String, NodeResult> results = new HashMap<>();
+        for (Map.Entry<String, Frame> entry : run.frames.entrySet()) {
+            results.put(entry.getKey(), read(entry.getValue()));
+        }
+        return results;
+    }
+
+    @Override
+    public void complete(String runId) {
+        if (runs.remove(runId) == null) {
+            return;
+        }
+        // 结束标记丢失只会让该执行的记录多保留一段时间，无需刷盘
+        append(encode(COMPLETE, runId, null, null), false);
+    }
+
+    @Override
+    public Set<String> runIds() {
+        return Set.copyOf(runs.keySet());
+    }
+
+    @Override
+    public int expire(Duration maxAge) {
+        List<String> expired = expired(maxAge);
+        expired.forEach(this::complete);
+        return expired.size();
+    }
+
+    /**
+     * 尚未成功结束的执行数
+     */
+    public int size() {
+        return runs.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 最后一条记录早于 maxAge 的执行
+     */
+    private List<String> expired(Duration maxAge) {
+        long deadline = System.currentTimeMillis() - maxAge.toMillis();
+        List<String> expired = new ArrayList<>();
+        runs.forEach((runId, run) -> {
+            if (run.lastRecordAt < deadline) {
+                expired.add(runId);
+            }
+        });
+        return expired;
+    }
+
+    /**
+     * 追加一帧
+     * @param force 是否在返回前刷盘
+     * @return 该帧在文件中的起始位置
+     */
+    private long append(ByteBuffer frame, boolean force) {
+        long position;
+        long end;
+        synchronized (this) {
+            position = written;
+            try {
+                while (frame.hasRemaining()) {
+                    written += channel.write(frame);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入检查点日志失败: " + path, e);
+            }
+            end = written;
+        }
+        if (force) {
+            awaitDurable(end);
+        }
+        return position;
+    }
+
+    /**
+     * 等待 end 之前的内容刷盘：已被其他线程的刷盘覆盖时直接返回，否则刷盘到当前写入位置
+     */
+    private void awaitDurable(long end) {
+        synchronized (syncLock) {
+            if (forced >= end) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = written;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入检查点日志失败: " + path, e);
+            }
+            forced = target;
+        }
+    }
+
+    private NodeResult read(Frame frame) {
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length());
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, frame.position() + buffer.position()) < 0) {
+                    throw new EOFException("检查点记录不完整");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取检查点日志失败: " + path, e);
+        }
+        // 跳过长度与校验和、记录类型与写入时间、runId 与节点键
+        buffer.position(8 + 1 + 8);
+        getString(buffer);
+        getString(buffer);
+        return codec.decode(buffer);
+    }
+
+    /**
+     * 回放日志重建索引，截断末尾不完整的帧
+     * @return 是否存在已结束执行的失效记录，需要压缩
+     */
+    private boolean replay() throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        boolean stale = false;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    payload = in.readNBytes(length);
+                    if (payload.length != length || crc(payload) != crc) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    stale |= apply(ByteBuffer.wrap(payload), new Frame(valid, 8 + payload.length));
+                } catch (RuntimeException e) {
+                    log.warn("跳过无法解析的检查点记录: {}", e.toString());
+                }
+                valid += 8 + payload.length;
+            }
+        }
+        if (valid < Files.size(path)) {
+            log.warn("检查点日志末尾存在不完整的记录，截断到 {} 字节: {}", valid, path);
+            try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(valid);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * @return 该记录是否使已有记录失效
+     */
+    private boolean apply(ByteBuffer payload, Frame frame) {
+        byte type = payload.get();
+        long timestamp = payload.getLong();
+        String runId = getString(payload);
+        if (type == COMPLETE) {
+            runs.remove(runId);
+            return true;
+        }
+        String nodeKey = getString(payload);
+        Run run = runs.computeIfAbsent(runId, id -> new Run());
+        // 同一节点的新记录覆盖旧记录，旧记录在下一次压缩时丢弃
+        run.frames.put(nodeKey, frame);
+        run.lastRecordAt = Math.max(run.lastRecordAt, timestamp);
+        return false;
+    }
+
+    /**
+     * 只保留尚未结束的执行：把它们的帧原样复制到临时文件后原子替换，并更新索引中的位置
+     */
+    private void rewrite() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Run run : runs.values()) {
+                for (Map.Entry<String, Frame> entry : run.frames.entrySet()) {
+                    Frame frame = entry.getValue();
+                    long position = out.position();
+                    long copied = 0;
+                    while (copied < frame.length()) {
+                        copied += in.transferTo(frame.position() + copied, frame.length() - copied, out);
+                    }
+                    entry.setValue(new Frame(position, frame.length()));
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 编码一条完整的帧（含长度与校验和），结果不可编码时抛出 IllegalArgumentException
+     */
+    private ByteBuffer encode(byte type, String runId, String nodeKey, NodeResult result) {
+        byte[] run = runId.getBytes(StandardCharsets.UTF_8);
+        byte[] node = type == RESULT ? nodeKey.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer value = type == RESULT ? codec.encode(result) : ByteBuffer.allocate(0);
+        int length = 1 + 8 + 4 + run.length + (type == RESULT ? 4 + node.length : 0) + value.remaining();
+        ByteBuffer frame = ByteBuffer.allocate(8 + length);
+        frame.position(8);
+        frame.put(type).putLong(System.currentTimeMillis()).putInt(run.length).put(run);
+        if (type == RESULT) {
+            frame.putInt(node.length).put(node);
+        }
+        frame.put(value);
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 8, length);
+        frame.putInt(0, length).putInt(4, (int) crc.getValue());
+        return frame.flip();
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path path;
+        private NodeResultCodec codec = NodeResultCodec.standard();
+        private boolean sync = true;
+        private Duration retention;
+
+        /**
+         * 日志文件路径，不存在时创建
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * 结果的编解码器，默认 {@link NodeResultCodec#standard()}，可在其中注册自定义类型
+         */
+        public Builder codec(NodeResultCodec codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * 每条记录是否在写入后刷盘，默认 true（并发写入合并为一次刷盘）
+         */
+        public Builder sync(boolean sync) {
+            this.sync = sync;
+            return this;
+        }
+
+        /**
+         * 失败后一直未恢复的执行的保留期：打开日志时丢弃最后一条记录早于该时长的执行，为 null 时一直保留；
+         * 运行期间可调用 {@link FileCheckpointStore#expire} 清理
+         */
+        public Builder retention(Duration retention) {
+            this.retention = retention;
+            return this;
+        }
+
+        public FileCheckpointStore build() {
+            Objects.requireNonNull(path, "path不能为null");
+            Objects.requireNonNull(codec, "codec不能为null");
+            if (retention != null && retention.isNegative()) {
+                throw new IllegalArgumentException("retention不能为负: " + retention);
+            }
+            return new FileCheckpointStore(this);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.util.NodeResult;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 进程内的检查点存储
+ *
+ * @author han
+ * @time 2026/10/17 23:20
+ */
+
+public class InMemoryCheckpointStore implements CheckpointStore {
+
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+
+    private static final class Run {
+        final Map<String, NodeResult> results = new ConcurrentHashMap<>();
+        volatile long lastRecordAt;
+    }
+
+    @Override
+    public void record(String runId, String nodeKey, NodeResult result) {
+        Run run = runs.computeIfAbsent(runId, id -> new Run());
+        run.results.put(nodeKey, result);
+        run.lastRecordAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public Map<String, NodeResult> load(String runId) {
+        Run run = runs.get(runId);
+        return run == null ? Map.of() : new HashMap<>(run.results);
+    }
+
+    @Override
+    public void complete(String runId) {
+        runs.remove(runId);
+    }
+
+    @Override
+    public Set<String> runIds() {
+        return Set.copyOf(runs.keySet());
+    }
+
+    @Override
+    public int expire(Duration maxAge) {
+        long deadline = System.currentTimeMillis() - maxAge.toMillis();
+        int expired = 0;
+        for (Iterator<Run> it = runs.values().iterator(); it.hasNext(); ) {
+            if (it.next().lastRecordAt < deadline) {
+                it.remove();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 尚未成功结束的执行数
+     */
+    public int size() {
+        return runs.size();
+    }
+}
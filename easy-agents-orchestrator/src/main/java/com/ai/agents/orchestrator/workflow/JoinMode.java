@@ -0,0 +1,20 @@
+package com.ai.agents.orchestrator.workflow;
+
+/**
+ * 多父节点子节点的汇聚方式
+ *
+ * @author han
+ * @time 2026/10/17 23:05
+ */
+
+public enum JoinMode {
+    /**
+     * 等待全部父节点结束（或被跳过），至少一个父节点放行时执行（默认）
+     */
+    ALL,
+    /**
+     * 第一个放行本节点的父节点完成时立即执行，不再等待其余父节点；
+     * 其余父节点照常运行，但不会再次触发本节点。全部父节点都不放行时跳过
+     */
+    ANY
+}
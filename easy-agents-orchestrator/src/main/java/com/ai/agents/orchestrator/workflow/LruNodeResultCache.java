@@ -0,0 +1,100 @@
+package com.ai.agents.orchestrator.workflow;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于访问顺序 LinkedHashMap 的 LRU 节点结果缓存，过期条目在读取时惰性清除
+ *
+ * @author han
+ * @time 2026/10/17 18:40
+ */
+
+public class LruNodeResultCache implements NodeResultCache {
+
+    private final int maxSize;
+    // 为 0 时不过期
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Timed> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record Timed(Entry entry, long expiresAt) {
+    }
+
+    public LruNodeResultCache(int maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize必须大于0: " + maxSize);
+        }
+        if (ttl != null && (ttl.isNegative() || ttl.isZero())) {
+            throw new IllegalArgumentException("ttl必须大于0: " + ttl);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl == null ? 0 : ttl.toNanos();
+        // accessOrder=true：get 会把条目移到队尾，队首即最久未使用
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Timed> eldest) {
+                return size() > LruNodeResultCache.this.maxSize;
+            }
+        };
+    }
+
+    @Override
+    public Entry get(Key key) {
+        Timed timed;
+        synchronized (entries) {
+            timed = entries.get(key);
+            if (timed != null && ttlNanos > 0 && System.nanoTime() - timed.expiresAt() > 0) {
+                entries.remove(key);
+                timed = null;
+            }
+        }
+        if (timed == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return timed.entry();
+    }
+
+    @Override
+    public void put(Key key, Entry entry) {
+        Timed timed = new Timed(entry, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.put(key, timed);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LruNodeResultCache{" +
+                "size=" + size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package com.ai.agents.orchestrator.workflow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.scheduler.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 工作流节点执行器的工厂方法
+ *
+ * @author han
+ * @time 2026/10/17 11:48
+ */
+
+public final class NodeExecutors {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeExecutors.class);
+
+    private NodeExecutors() {
+    }
+
+    /**
+     * 全局共享的超时计时器，只负责触发超时，不执行节点逻辑
+     */
+    static ScheduledExecutorService timer() {
+        return TimerHolder.TIMER;
+    }
+
+    /**
+     * 基于同一个计时器的 Reactor 调度器，超时不受 CPU/I/O 调度器繁忙程度影响
+     */
+    static Scheduler timerScheduler() {
+        return TimerHolder.TIMER_SCHEDULER;
+    }
+
+    private static final class TimerHolder {
+        private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wf-timeout-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        private static final Scheduler TIMER_SCHEDULER = Schedulers.fromExecutorService(TIMER, "wf-timeout");
+    }
+
+    /**
+     * 默认执行器：固定 10 个线程、空闲 60 秒回收，多余的任务在无界队列中按提交顺序（FIFO）排队
+     * 不再由提交方线程代为执行（CallerRunsPolicy），避免完成回调线程被慢节点占住、打乱排队顺序；
+     * 需要限制某类节点的并发或速率时请使用 {@link NodeLimiter}，排队发生在限制器上而不是执行器里
+     */
+    public static ExecutorService newDefaultExecutor() {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                10, 10, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "wf-thread-" + seq.incrementAndGet())
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，适合大量阻塞在 I/O 上的节点（如 AIChatNode 的 call()）
+     * 虚拟线程需要 JDK 21+；项目按 Java 17 编译，因此通过反射获取，
+     * 运行在更低版本的 JDK 上时退化为按需创建的守护线程池
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("当前 JDK 不支持虚拟线程，退化为按需创建的平台线程池");
+            AtomicInteger seq = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "wf-io-thread-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
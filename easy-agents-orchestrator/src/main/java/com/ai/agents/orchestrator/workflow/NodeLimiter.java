@@ -0,0 +1,308 @@
+package com.ai.agents.orchestrator.workflow;
+
+import reactor.core.publisher.*;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 节点的异步并发/速率限制器
+ * 等待名额的执行按 FIFO 排队，排队期间不占用任何线程；名额发放后节点才会被提交到执行器（或订阅节点流）
+ *
+ * 支持三种限制，可以组合：
+ * 1) 固定并发上限
+ * 2) 自适应并发上限（AIMD）：执行成功且延迟不超过阈值时缓慢加一，超时/失败/延迟超标时按比例收缩
+ * 3) 令牌桶限速：每秒发放 permitsPerSecond 个令牌，最多积攒 burst 个，用于遵守模型提供方的 QPS 限制
+ *
+ * 同一个限制器实例可以被多个节点共享（例如使用同一个 ChatClientRequestSpec 的所有 AIChatNode），共享即共用名额
+ *
+ * <pre>{@code
+ * NodeLimiter limiter = NodeLimiter.builder()
+ *     .adaptive(4, 1, 64, Duration.ofSeconds(5))
+ *     .rateLimit(10, 20)
+ *     .build();
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 20:30
+ */
+
+public final class NodeLimiter {
+
+    /**
+     * 一次执行的结局，决定自适应上限如何调整
+     */
+    public enum Outcome {
+        /**
+         * 执行成功
+         */
+        SUCCESS,
+        /**
+         * 超时或失败，视为拥塞信号
+         */
+        DROPPED,
+        /**
+         * 被取消等与负载无关的结局，只归还名额
+         */
+        IGNORED
+    }
+
+    // 自适应模式下发生拥塞时的收缩比例
+    private static final double BACKOFF = 0.9;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    // 为 0 时不限速
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double limit;
+    private int inFlight;
+    private double tokens;
+    private long lastRefill;
+    private boolean refillScheduled;
+    private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+    private NodeLimiter(Builder builder) {
+        this.adaptive = builder.adaptive;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.latencyThresholdNanos = builder.latencyThreshold == null ? Long.MAX_VALUE : builder.latencyThreshold.toNanos();
+        this.limit = builder.limit;
+        this.tokensPerNano = builder.permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = builder.burst;
+        this.tokens = builder.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 固定并发上限
+     */
+    public static NodeLimiter fixed(int maxConcurrency) {
+        return builder().maxConcurrency(maxConcurrency).build();
+    }
+
+    /**
+     * AIMD 自适应并发上限
+     * @param initialLimit 初始上限
+     * @param minLimit 最小上限
+     * @param maxLimit 最大上限
+     * @param latencyThreshold 延迟超过该值视为拥塞
+     */
+    public static NodeLimiter aimd(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold) {
+        return builder().adaptive(initialLimit, minLimit, maxLimit, latencyThreshold).build();
+    }
+
+    /**
+     * 申请一个名额，按申请顺序发放
+     * 取消返回的 future 即放弃排队
+     */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        synchronized (this) {
+            waiters.add(waiter);
+        }
+        grant();
+        return waiter;
+    }
+
+    /**
+     * 流式执行的限制：拿到名额后才订阅 execution，流结束时归还；取消订阅会撤销排队
+     */
+    public <T> Flux<T> limit(Flux<T> execution) {
+        return Flux.usingWhen(
+                Mono.fromFuture(this::acquire),
+                permit -> execution,
+                permit -> Mono.fromRunnable(() -> permit.release(Outcome.SUCCESS)),
+                (permit, ex) -> Mono.fromRunnable(() -> permit.release(ex instanceof CancellationException
+                        ? Outcome.IGNORED : Outcome.DROPPED)),
+                permit -> Mono.fromRunnable(() -> permit.release(Outcome.IGNORED)));
+    }
+
+    /**
+     * 在锁内挑出可以放行的等待者，在锁外完成它们，避免在锁内运行下游逻辑
+     */
+    private void grant() {
+        while (true) {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            synchronized (this) {
+                while (!waiters.isEmpty() && inFlight < (int) limit) {
+                    if (waiters.peek().isDone()) {
+                        // 已放弃排队
+                        waiters.poll();
+                        continue;
+                    }
+                    if (tokensPerNano > 0 && !takeToken()) {
+                        break;
+                    }
+                    inFlight++;
+                    granted.add(waiters.poll());
+                }
+            }
+            boolean returned = false;
+            for (CompletableFuture<Permit> waiter : granted) {
+                Permit permit = new Permit();
+                if (!waiter.complete(permit)) {
+                    // 发放的同时被取消了，归还名额与令牌
+                    synchronized (this) {
+                        inFlight--;
+                        if (tokensPerNano > 0) {
+                            tokens = Math.min(burst, tokens + 1);
+                        }
+                    }
+                    returned = true;
+                }
+            }
+            if (!returned) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 补充并尝试取走一个令牌，令牌不足时安排在下一个令牌可用时重新发放
+     */
+    private boolean takeToken() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        if (!refillScheduled) {
+            refillScheduled = true;
+            long delay = (long) Math.ceil((1 - tokens) / tokensPerNano);
+            NodeExecutors.timer().schedule(() -> {
+                synchronized (this) {
+                    refillScheduled = false;
+                }
+                grant();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+        return false;
+    }
+
+    private void release(long latencyNanos, Outcome outcome) {
+        synchronized (this) {
+            inFlight--;
+            if (adaptive && outcome != Outcome.IGNORED) {
+                if (outcome == Outcome.SUCCESS && latencyNanos <= latencyThresholdNanos) {
+                    // 加性增：大约每完成 limit 次成功执行上限加一
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                } else {
+                    // 乘性减
+                    limit = Math.max(minLimit, limit * BACKOFF);
+                }
+            }
+        }
+        grant();
+    }
+
+    /**
+     * 当前的并发上限（自适应模式下会变化）
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NodeLimiter{" +
+                "limit=" + (int) limit +
+                ", inFlight=" + inFlight +
+                ", queued=" + waiters.size() +
+                ", adaptive=" + adaptive +
+                '}';
+    }
+
+    /**
+     * 一个已发放的名额，必须且只能归还一次（重复归还会被忽略）
+     */
+    public final class Permit {
+        private final long grantedAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                NodeLimiter.this.release(System.nanoTime() - grantedAt, outcome);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int limit = Integer.MAX_VALUE;
+        private boolean adaptive;
+        private int minLimit;
+        private int maxLimit;
+        private Duration latencyThreshold;
+        private double permitsPerSecond;
+        private double burst;
+
+        /**
+         * 固定并发上限
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency必须大于0: " + maxConcurrency);
+            }
+            this.limit = maxConcurrency;
+            this.adaptive = false;
+            return this;
+        }
+
+        /**
+         * AIMD 自适应并发上限
+         * @param latencyThreshold 延迟超过该值视为拥塞，为 null 时只以超时/失败作为拥塞信号
+         */
+        public Builder adaptive(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold) {
+            if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException(String.format(
+                        "需要满足 0 < minLimit <= initialLimit <= maxLimit：%d, %d, %d", minLimit, initialLimit, maxLimit));
+            }
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.latencyThreshold = latencyThreshold;
+            this.adaptive = true;
+            return this;
+        }
+
+        /**
+         * 令牌桶限速
+         * @param permitsPerSecond 每秒发放的令牌数
+         * @param burst 最多积攒的令牌数（允许的突发量）
+         */
+        public Builder rateLimit(double permitsPerSecond, int burst) {
+            if (permitsPerSecond <= 0) {
+                throw new IllegalArgumentException("permitsPerSecond必须大于0: " + permitsPerSecond);
+            }
+            if (burst <= 0) {
+                throw new IllegalArgumentException("burst必须大于0: " + burst);
+            }
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            return this;
+        }
+
+        public NodeLimiter build() {
+            return new NodeLimiter(this);
+        }
+    }
+}
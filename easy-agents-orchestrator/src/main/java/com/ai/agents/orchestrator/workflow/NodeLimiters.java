@@ -0,0 +1,54 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.node.Node;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 节点到限制器的解析
+ * 节点自身设置了限制器时优先使用；否则按节点类型（含子类）匹配管理器上配置的限制器，
+ * 同一类型的节点在所有执行间共享同一个限制器，节点类型到限制器的匹配结果会被缓存
+ *
+ * @author han
+ * @time 2026/10/17 12:05
+ */
+
+final class NodeLimiters {
+
+    // 未配置限制器的节点类型占位
+    private static final NodeLimiter UNLIMITED = NodeLimiter.builder().build();
+
+    private final Map<Class<?>, NodeLimiter> configured;
+    private final Map<Class<?>, NodeLimiter> resolved = new ConcurrentHashMap<>();
+
+    NodeLimiters(Map<Class<? extends Node>, NodeLimiter> limiters) {
+        this.configured = new LinkedHashMap<>(limiters);
+    }
+
+    boolean isEmpty() {
+        return configured.isEmpty();
+    }
+
+    /**
+     * 找到该节点对应的限制器：节点自身的限制器优先，其次精确匹配类型，再次匹配最近的父类型
+     * @return 未配置限制器时返回 null
+     */
+    NodeLimiter of(Node<?> node) {
+        if (node.getLimiter() != null) {
+            return node.getLimiter();
+        }
+        NodeLimiter limiter = resolved.computeIfAbsent(node.getClass(), this::resolve);
+        return limiter == UNLIMITED ? null : limiter;
+    }
+
+    private NodeLimiter resolve(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            NodeLimiter limiter = configured.get(c);
+            if (limiter != null) {
+                return limiter;
+            }
+        }
+        return UNLIMITED;
+    }
+}
@@ -0,0 +1,60 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.node.Node;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 节点结果缓存（按内容寻址）
+ * 键由节点定义（节点实例）与节点解析出的缓存键组成：CodeNode 为解析后的输入，AIChatNode 为 prompt 生成的消息列表，
+ * 依赖输入的 equals/hashCode 判断是否为同一次调用。只有声明了 cacheable 的节点才会使用缓存
+ *
+ * 阻塞执行缓存最终结果；流式执行缓存节点的全部原始输出，命中时按原顺序重放为 Flux，
+ * 两种模式的条目互不共用。执行失败或被取消的结果不会被缓存
+ *
+ * <pre>{@code
+ * WorkFlowManager manager = WorkFlowManager.builder()
+ *     .cache(NodeResultCache.lru(1024, Duration.ofMinutes(10)))
+ *     .build();
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 18:40
+ */
+
+public interface NodeResultCache {
+
+    /**
+     * 缓存键
+     * @param node 节点实例
+     * @param input 节点的缓存键（由 {@link Node#cacheKeyOf} 给出）
+     * @param streaming 是否为流式执行的条目
+     */
+    record Key(Node<?> node, Object input, boolean streaming) {
+    }
+
+    /**
+     * 缓存条目
+     * @param result 阻塞执行的结果
+     * @param chunks 流式执行的全部原始输出，阻塞执行的条目为 null
+     */
+    record Entry(Object result, List<Object> chunks) {
+    }
+
+    /**
+     * @return 命中的条目，未命中或已过期时返回 null
+     */
+    Entry get(Key key);
+
+    void put(Key key, Entry entry);
+
+    /**
+     * 按条目数上限做 LRU 淘汰，并可设置存活时间的内存缓存
+     * @param maxSize 最大条目数
+     * @param ttl 条目写入后的存活时间，为 null 时不过期
+     */
+    static NodeResultCache lru(int maxSize, Duration ttl) {
+        return new LruNodeResultCache(maxSize, ttl);
+    }
+}
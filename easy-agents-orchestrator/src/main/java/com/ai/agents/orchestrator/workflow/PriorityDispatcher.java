@@ -0,0 +1,63 @@
+package com.ai.agents.orchestrator.workflow;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按优先级向执行器派发任务
+ * 执行器自身的队列是 FIFO 的，因此这里不直接提交任务，而是把任务放进优先队列，
+ * 再向执行器提交同样数量的“取任务者”：执行器每空出一个线程，就运行当前优先级最高的任务。
+ * 优先级相同的任务按提交顺序执行
+ * 关闭后拒绝新任务，已排队的任务仍由已提交的取任务者执行
+ *
+ * @author han
+ * @time 2026/10/17 21:10
+ */
+
+final class PriorityDispatcher {
+
+    private final Executor delegate;
+    private final PriorityBlockingQueue<Entry> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean shutdown;
+
+    private record Entry(Runnable task, double priority, long seq) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry o) {
+            // 优先级高的在前，相同时先提交的在前
+            int c = Double.compare(o.priority, priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    PriorityDispatcher(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    void execute(Runnable task, double priority) {
+        if (shutdown) {
+            throw new RejectedExecutionException("PriorityDispatcher已关闭");
+        }
+        Entry entry = new Entry(task, priority, sequence.getAndIncrement());
+        queue.add(entry);
+        try {
+            delegate.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            // 若该任务已被其他取任务者取走，则它已经在运行，无需报错
+            if (queue.remove(entry)) {
+                throw e;
+            }
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+    }
+
+    private void runNext() {
+        Entry entry = queue.poll();
+        if (entry != null) {
+            entry.task().run();
+        }
+    }
+}
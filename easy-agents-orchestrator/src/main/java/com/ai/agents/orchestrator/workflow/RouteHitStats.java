@@ -0,0 +1,39 @@
+package com.ai.agents.orchestrator.workflow;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 路由边的历史命中率（指数加权移动平均），按子节点 UUID 记录，同一管理器的所有执行共享
+ * 用于判断推测执行是否值得：只统计单父节点、带路由选项的子节点
+ *
+ * @author han
+ * @time 2026/10/17 22:30
+ */
+
+final class RouteHitStats {
+
+    // 新样本的权重
+    private static final double ALPHA = 0.1;
+    // 样本数达到该值后才认为命中率可信
+    private static final long MIN_SAMPLES = 5;
+
+    private record Stat(double hitRate, long count) {
+    }
+
+    private final Map<UUID, Stat> stats = new ConcurrentHashMap<>();
+
+    void record(UUID childId, boolean routed) {
+        double sample = routed ? 1 : 0;
+        stats.merge(childId, new Stat(sample, 1),
+                (old, s) -> new Stat(old.hitRate() + ALPHA * (s.hitRate() - old.hitRate()), old.count() + 1));
+    }
+
+    /**
+     * 该子节点是否已有足够的样本，且命中率不低于 minHitRate
+     */
+    boolean isLikely(UUID childId, double minHitRate) {
+        Stat stat = stats.get(childId);
+        return stat != null && stat.count() >= MIN_SAMPLES && stat.hitRate() >= minHitRate;
+    }
+}
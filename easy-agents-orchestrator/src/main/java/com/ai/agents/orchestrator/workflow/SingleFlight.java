@@ -0,0 +1,113 @@
+package com.ai.agents.orchestrator.workflow;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * 进行中调用的合并（single-flight）
+ * 同一时刻键相同的多次节点执行只真正执行一次：阻塞执行共享同一个结果，
+ * 流式执行共享同一个上游并把全部输出多播给每个订阅方（晚加入的订阅方先收到已产生的输出）
+ * 调用结束或最后一个订阅方离开后立即移除，不做任何缓存；需要跨时间复用结果请配合 {@link NodeResultCache}
+ *
+ * @author han
+ * @time 2026/10/17 19:20
+ */
+
+final class SingleFlight {
+
+    private final ConcurrentHashMap<NodeResultCache.Key, CompletableFuture<Object>> blockingFlights = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<NodeResultCache.Key, StreamingFlight> streamingFlights = new ConcurrentHashMap<>();
+
+    /**
+     * 执行或加入一次阻塞调用
+     * 每个调用方拿到独立的视图，某个调用方结束等待（超时等）不会影响共享的调用；
+     * 共享的调用因发起方的执行被取消而失败时，仍在等待的其他调用方会重新发起，而不是一起失败
+     */
+    CompletableFuture<Object> executeBlocking(NodeResultCache.Key key, Supplier<CompletableFuture<Object>> call) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = blockingFlights.putIfAbsent(key, flight);
+        if (existing == null) {
+            try {
+                call.get().whenComplete((v, ex) -> {
+                    blockingFlights.remove(key, flight);
+                    if (ex != null) {
+                        flight.completeExceptionally(ex);
+                    } else {
+                        flight.complete(v);
+                    }
+                });
+            } catch (Throwable e) {
+                blockingFlights.remove(key, flight);
+                flight.completeExceptionally(e);
+            }
+            return flight.thenApply(Function.identity());
+        }
+        return existing.handle((v, ex) -> {
+            if (ex == null) {
+                return CompletableFuture.completedFuture(v);
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof CancellationException || cause instanceof InterruptedException) {
+                return executeBlocking(key, call);
+            }
+            return CompletableFuture.failedFuture(cause);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * 执行或加入一次流式调用
+     * 上游只连接一次：在上游结束后、移除前加入的订阅方收到完整的重放而不会再次发起调用；
+     * 所有订阅方都取消后上游随之取消并移除，此后加入的订阅方发起新的调用
+     */
+    Flux<Object> executeStreaming(NodeResultCache.Key key, Supplier<Flux<Object>> call) {
+        return Flux.defer(() -> {
+            // 加入与最后一个订阅方离开都在 compute 中进行，已移除的调用不会再被加入
+            StreamingFlight flight = streamingFlights.compute(key, (k, f) -> {
+                if (f == null) {
+                    f = new StreamingFlight(k, call);
+                }
+                f.subscribers++;
+                return f;
+            });
+            return flight.shared.doFinally(signal -> leave(flight));
+        });
+    }
+
+    private void leave(StreamingFlight flight) {
+        boolean[] last = new boolean[1];
+        streamingFlights.compute(flight.key, (k, f) -> {
+            if (--flight.subscribers > 0) {
+                return f;
+            }
+            last[0] = true;
+            return f == flight ? null : f;
+        });
+        // 已移除且没有订阅方，不会再被加入；在 compute 之外取消上游，避免取消回调重入映射表
+        Disposable connection = flight.connection;
+        if (last[0] && connection != null) {
+            connection.dispose();
+        }
+    }
+
+    /**
+     * 一次共享的流式调用
+     */
+    private final class StreamingFlight {
+        private final NodeResultCache.Key key;
+        private final Flux<Object> shared;
+        // 仅在 streamingFlights.compute 中读写
+        private int subscribers;
+        private volatile Disposable connection;
+
+        StreamingFlight(NodeResultCache.Key key, Supplier<Flux<Object>> call) {
+            this.key = key;
+            this.shared = Flux.defer(call)
+                    .doFinally(signal -> streamingFlights.remove(key, this))
+                    .replay()
+                    .autoConnect(1, c -> connection = c);
+        }
+    }
+}
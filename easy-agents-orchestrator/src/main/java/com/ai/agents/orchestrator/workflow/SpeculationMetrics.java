@@ -0,0 +1,53 @@
+package com.ai.agents.orchestrator.workflow;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 推测执行的累计指标（同一管理器的所有执行共享）
+ *
+ * @author han
+ * @time 2026/10/17 22:35
+ */
+
+public class SpeculationMetrics {
+
+    // 提前启动的子节点数
+    private final LongAdder started = new LongAdder();
+    // 路由命中、结果被采用的数量
+    private final LongAdder committed = new LongAdder();
+    // 路由未命中、结果被丢弃的数量
+    private final LongAdder discarded = new LongAdder();
+
+    void onStarted() {
+        started.increment();
+    }
+
+    void onCommitted() {
+        committed.increment();
+    }
+
+    void onDiscarded() {
+        discarded.increment();
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    public long getCommitted() {
+        return committed.sum();
+    }
+
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SpeculationMetrics{" +
+                "started=" + getStarted() +
+                ", committed=" + getCommitted() +
+                ", discarded=" + getDiscarded() +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package com.ai.agents.orchestrator.workflow;
+
+/**
+ * 流式事件的投递策略，决定订阅方消费跟不上时如何处理事件
+ *
+ * <pre>{@code
+ * WorkFlowManager manager = WorkFlowManager.builder()
+ *     .streamDelivery(StreamDelivery.dropOldest(256).replay(64))
+ *     .build();
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 15:02
+ */
+
+public final class StreamDelivery {
+
+    public enum Mode {
+        /**
+         * 真正的背压：订阅方的请求量逐级传递到节点流，消费慢时减缓从模型拉取 token 的速度
+         */
+        BACKPRESSURE,
+        /**
+         * 有界缓冲：节点全速执行，缓冲区满时丢弃最旧的事件
+         */
+        DROP_OLDEST,
+        /**
+         * 每个节点只保留最新的一个未投递事件，适合只关心进度的订阅方
+         */
+        LATEST_PER_NODE
+    }
+
+    private final Mode mode;
+    private final int bufferSize;
+    // 晚到订阅方可回放的历史事件数量，0 表示不回放
+    private final int replayHistory;
+
+    private StreamDelivery(Mode mode, int bufferSize, int replayHistory) {
+        this.mode = mode;
+        this.bufferSize = bufferSize;
+        this.replayHistory = replayHistory;
+    }
+
+    public static StreamDelivery backpressure() {
+        return new StreamDelivery(Mode.BACKPRESSURE, 0, 0);
+    }
+
+    /**
+     * @param bufferSize 缓冲区容量
+     */
+    public static StreamDelivery dropOldest(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize必须大于0: " + bufferSize);
+        }
+        return new StreamDelivery(Mode.DROP_OLDEST, bufferSize, 0);
+    }
+
+    public static StreamDelivery latestPerNode() {
+        return new StreamDelivery(Mode.LATEST_PER_NODE, 1, 0);
+    }
+
+    /**
+     * 允许同一个 startStreaming() 返回的 Flux 被多次订阅：所有订阅方共享同一次执行，
+     * 晚到的订阅方先收到最近 history 条历史事件；全部订阅方取消后执行随之取消
+     * @param history 回放的历史事件数量
+     */
+    public StreamDelivery replay(int history) {
+        if (history <= 0) {
+            throw new IllegalArgumentException("history必须大于0: " + history);
+        }
+        return new StreamDelivery(mode, bufferSize, history);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getReplayHistory() {
+        return replayHistory;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamDelivery{" +
+                "mode=" + mode +
+                ", bufferSize=" + bufferSize +
+                ", replayHistory=" + replayHistory +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package com.ai.agents.orchestrator.workflow;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式事件投递的累计指标（同一管理器的所有执行共享）
+ *
+ * @author han
+ * @time 2026/10/17 15:20
+ */
+
+public class StreamMetrics {
+
+    // 节点产生的事件数
+    private final LongAdder emitted = new LongAdder();
+    // 已投递给订阅方的事件数
+    private final LongAdder delivered = new LongAdder();
+    // 因缓冲区满或被更新事件覆盖而丢弃的事件数
+    private final LongAdder dropped = new LongAdder();
+
+    void onEmitted() {
+        emitted.increment();
+    }
+
+    void onDelivered() {
+        delivered.increment();
+    }
+
+    void onDropped() {
+        dropped.increment();
+    }
+
+    public long getEmitted() {
+        return emitted.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 当前仍在缓冲、尚未投递的事件数（近似值）
+     */
+    public long getBuffered() {
+        return Math.max(0, getEmitted() - getDelivered() - getDropped());
+    }
+
+    @Override
+    public String toString() {
+        return "StreamMetrics{" +
+                "emitted=" + getEmitted() +
+                ", delivered=" + getDelivered() +
+                ", dropped=" + getDropped() +
+                ", buffered=" + getBuffered() +
+                '}';
+    }
+}
@@ -0,0 +1,416 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.node.Node;
+import com.ai.agents.orchestrator.util.*;
+import reactor.core.publisher.Flux;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 单次工作流执行的上下文
+ * 一次 startBlocking()/startStreaming() 对应一个上下文，所有可变的执行状态都放在这里，
+ * 因此同一个 {@link WorkFlowPlan} 可以被多个请求同时执行而互不干扰
+ *
+ * @author han
+ * @time 2026/10/17 09:40
+ */
+
+public class WorkFlowContext {
+
+    private final WorkFlowPlan plan;
+
+    private final Map<UUID, NodeResult> resultPool = new ConcurrentHashMap<>();
+
+    // 聚合执行所需的状态（按计划中的节点下标存放）：每个节点剩余未完成的父节点数量，以及是否被任一父节点路由命中
+    private final AtomicIntegerArray parentsLeft;
+    private final AtomicBitSet allowedByAnyParent;
+    // 已被调度执行的 ANY 汇聚节点，保证只被第一个放行的父节点触发
+    private final AtomicBitSet released;
+    // ANY 汇聚节点 -> 放行它的父节点 UUID，只记录读取该父节点结果的节点
+    private final Map<Node<?>, UUID> releasedBy = new ConcurrentHashMap<>();
+
+    // 本次执行的完成信号：正常结束时携带结果池，取消/超时/失败时异常结束
+    private final CompletableFuture<Map<UUID, NodeResult>> completion = new CompletableFuture<>();
+    // 正在运行的节点任务，取消时逐个中断
+    private final Set<Future<?>> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    // 声明了依赖的路由选项在本次执行中的结论（0 未求值，1 放行，2 不放行），以及尚未完成的依赖数量
+    private final AtomicIntegerArray routeDecisions;
+    private final AtomicIntegerArray routeDependenciesLeft;
+
+    // 已提前启动、尚未结算的推测执行（按节点下标）
+    private final AtomicReferenceArray<CompletableFuture<Object>> speculations;
+
+    // 检查点：本次执行的 runId（未配置检查点存储时为 null），以及恢复执行时从存储中读出的已完成节点结果
+    private volatile String runId;
+    private volatile Map<String, NodeResult> restored = Map.of();
+
+    // 开启结果提前释放时每个结果剩余的读者数量，否则为 null
+    private volatile AtomicIntegerArray readersLeft;
+
+    // 所属管理器的限制器解析（节点自身的限制器优先，其次按节点类型配置的限制器），由管理器在执行开始前设置
+    private volatile NodeLimiters limiters;
+
+    // 本次阻塞执行提交节点任务的执行器（子工作流继承父工作流的执行器），流式执行时为 null
+    private volatile ExecutorService executor;
+
+    // 各节点的剩余关键路径长度，开启优先级调度时在执行开始前计算，否则为 null
+    private double[] priorities;
+    // 开启优先级调度时派发节点任务的调度器（包装 executor），否则为 null
+    private volatile PriorityDispatcher dispatcher;
+
+    // 本次执行对根节点输入的覆盖（可选）
+    private final boolean overrideRootInput;
+    private final Object rootInput;
+
+    WorkFlowContext(WorkFlowPlan plan, boolean overrideRootInput, Object rootInput) {
+        this.plan = plan;
+        this.overrideRootInput = overrideRootInput;
+        this.rootInput = rootInput;
+
+        int size = plan.size();
+        this.parentsLeft = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            parentsLeft.set(i, plan.getParentCount(i));
+        }
+        this.allowedByAnyParent = new AtomicBitSet(size);
+        this.released = new AtomicBitSet(size);
+        this.speculations = new AtomicReferenceArray<>(size);
+        int slots = plan.routeSlotCount();
+        this.routeDecisions = new AtomicIntegerArray(slots);
+        this.routeDependenciesLeft = new AtomicIntegerArray(slots);
+        for (int i = 0; i < slots; i++) {
+            routeDependenciesLeft.set(i, plan.routeDependencyCount(i));
+        }
+
+        // 无论是主动取消、超时还是节点失败，执行一旦异常结束就中断所有仍在运行的节点
+        completion.whenComplete((v, ex) -> {
+            if (ex != null) {
+                cancelled = true;
+                releaseResults();
+                for (Future<?> task : running) {
+                    task.cancel(true);
+                }
+                for (int i = 0; i < speculations.length(); i++) {
+                    CompletableFuture<Object> speculation = speculations.getAndSet(i, null);
+                    if (speculation != null) {
+                        speculation.cancel(true);
+                    }
+                }
+            }
+        });
+    }
+
+    public WorkFlowPlan getPlan() {
+        return plan;
+    }
+
+    public Map<UUID, NodeResult> getResultPool() {
+        return resultPool;
+    }
+
+    /**
+     * 写入节点结果；执行已终止时立即释放，不再留在结果池
+     */
+    void putResult(UUID nodeId, NodeResult result) {
+        resultPool.put(nodeId, result);
+        // 终止时先置位再清理结果池，两边至少有一边看到这条结果，以 remove 的成败保证只释放一次
+        if (cancelled && resultPool.remove(nodeId, result)) {
+            result.release();
+        }
+    }
+
+    /**
+     * 执行异常结束：释放结果池中全部堆外结果
+     */
+    private void releaseResults() {
+        for (Map.Entry<UUID, NodeResult> entry : resultPool.entrySet()) {
+            if (entry.getValue() instanceof OffHeapNodeResult result && resultPool.remove(entry.getKey(), result)) {
+                result.release();
+            }
+        }
+    }
+
+    /**
+     * 执行成功结束：结果池中仍在堆外的结果解码回堆内并释放堆外数据，交给调用方的结果池不持有堆外资源
+     */
+    void moveResultsOnHeap() {
+        for (Map.Entry<UUID, NodeResult> entry : resultPool.entrySet()) {
+            if (entry.getValue() instanceof OffHeapNodeResult result
+                    && resultPool.replace(entry.getKey(), result, new NodeResult(result.getValue()))) {
+                result.release();
+            }
+        }
+    }
+
+    /**
+     * 本次执行是否覆盖了该节点的输入（仅根节点可被覆盖）
+     */
+    public boolean overridesInputOf(Node<?> node) {
+        return overrideRootInput && plan.getRoot().getElement() == node;
+    }
+
+    public Object getRootInput() {
+        return rootInput;
+    }
+
+    /**
+     * 本次执行是否已被取消（或因超时、失败而终止），终止后不再调度新的节点
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 以 reason 终止本次执行
+     * @return 本次调用是否真正终止了执行（已结束的执行返回 false）
+     */
+    boolean cancel(Throwable reason) {
+        return completion.completeExceptionally(reason);
+    }
+
+    CompletableFuture<Map<UUID, NodeResult>> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 本次阻塞执行使用的执行器，流式执行时为 null
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    void setLimiters(NodeLimiters limiters) {
+        this.limiters = limiters;
+    }
+
+    /**
+     * 节点在本次执行中生效的限制器，没有时为 null
+     */
+    public NodeLimiter limiterOf(Node<?> node) {
+        NodeLimiters l = limiters;
+        return l != null ? l.of(node) : node.getLimiter();
+    }
+
+    /**
+     * 在节点的限制器下执行一次流式调用：拿到名额后才订阅 call，流结束时归还
+     * 供节点内部发起多次调用时使用（如流水线节点每凑齐一句发起一次调用），没有限制器时原样返回
+     */
+    public <T> Flux<T> limitStreaming(Node<?> node, Flux<T> call) {
+        NodeLimiter limiter = limiterOf(node);
+        return limiter == null ? call : limiter.limit(call);
+    }
+
+    /**
+     * 本次执行的检查点 runId，未配置检查点存储时为 null
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    void setCheckpoint(String runId, Map<String, NodeResult> restored) {
+        this.runId = runId;
+        this.restored = restored;
+    }
+
+    /**
+     * 恢复执行时该节点已记录的结果，没有时为 null
+     */
+    NodeResult restoredResult(int index) {
+        return restored.isEmpty() ? null : restored.get(plan.checkpointKey(index));
+    }
+
+    /**
+     * 开启结果提前释放：结果的全部读者结束后即从结果池移除并释放，须在执行开始前调用
+     */
+    void trackReaders() {
+        AtomicIntegerArray left = new AtomicIntegerArray(plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            left.set(i, plan.readerCount(i));
+        }
+        this.readersLeft = left;
+    }
+
+    /**
+     * 节点 index 已结束（完成或被跳过），它可能读取的结果各少一个读者
+     */
+    void consumed(int index) {
+        if (readersLeft == null) {
+            return;
+        }
+        for (int result : plan.readsOf(index)) {
+            readerDone(result);
+        }
+    }
+
+    private void readerDone(int index) {
+        if (readersLeft.decrementAndGet(index) == 0) {
+            releaseResult(index);
+        }
+    }
+
+    /**
+     * 从结果池移除并释放节点 index 的结果；结果尚未写入时由写入后的 {@link #resultAvailable} 释放
+     */
+    private void releaseResult(int index) {
+        NodeResult result = resultPool.remove(plan.getNode(index).getId());
+        if (result != null) {
+            result.release();
+        }
+    }
+
+    void setPriorities(double[] priorities, PriorityDispatcher dispatcher) {
+        this.priorities = priorities;
+        this.dispatcher = dispatcher;
+    }
+
+    PriorityDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * 节点的调度优先级：剩余关键路径越长越优先
+     */
+    double priorityOf(int index) {
+        return priorities == null ? 0 : priorities[index];
+    }
+
+    /**
+     * 登记一个正在运行的节点任务；若执行已被终止则立即中断它
+     */
+    void track(Future<?> task) {
+        running.add(task);
+        if (cancelled) {
+            task.cancel(true);
+        }
+    }
+
+    void untrack(Future<?> task) {
+        running.remove(task);
+    }
+
+    /**
+     * 登记节点 index 的推测执行；若执行已被终止则立即取消它
+     */
+    void speculate(int index, CompletableFuture<Object> execution) {
+        speculations.set(index, execution);
+        if (cancelled && speculations.compareAndSet(index, execution, null)) {
+            execution.cancel(true);
+        }
+    }
+
+    /**
+     * 取走节点 index 的推测执行以采用其结果，没有时返回 null
+     */
+    CompletableFuture<Object> takeSpeculation(int index) {
+        return speculations.getAndSet(index, null);
+    }
+
+    /**
+     * 取消并丢弃节点 index 的推测执行
+     * @return 是否存在被丢弃的推测执行
+     */
+    boolean discardSpeculation(int index) {
+        CompletableFuture<Object> speculation = speculations.getAndSet(index, null);
+        if (speculation == null) {
+            return false;
+        }
+        speculation.cancel(true);
+        return true;
+    }
+
+    /**
+     * 记录父节点对 child 的路由命中（若命中），并将 child 的剩余父节点计数减一
+     * 无论是否命中都要减一，因为初始计数是全部父节点数量，与是否路由无关
+     * @return child 剩余未完成的父节点数量
+     */
+    int arrive(int child, boolean routed) {
+        if (routed) {
+            allowedByAnyParent.set(child);
+        }
+        return parentsLeft.decrementAndGet(child);
+    }
+
+    /**
+     * 出边 edge 是否放行：声明了依赖的路由选项在依赖全部写入后只求值一次，其余每次重新求值
+     */
+    boolean isRouted(int edge) {
+        int slot = plan.routeSlotOf(edge);
+        return slot < 0 ? plan.isRouted(edge, resultPool) : decide(slot);
+    }
+
+    /**
+     * 节点 index 的结果已写入结果池：依赖全部完成的路由选项立即求值并记住结论
+     */
+    void resultAvailable(int index) {
+        for (int slot : plan.routesDependingOn(index)) {
+            if (routeDependenciesLeft.decrementAndGet(slot) == 0) {
+                try {
+                    decide(slot);
+                } catch (RuntimeException e) {
+                    // 留到结算出边时重新求值，由该处按原有方式报错
+                }
+            }
+        }
+        // 读者在结果写入前就已全部结束（如都被跳过）
+        if (readersLeft != null && plan.readerCount(index) > 0 && readersLeft.get(index) == 0) {
+            releaseResult(index);
+        }
+    }
+
+    private boolean decide(int slot) {
+        int decision = routeDecisions.get(slot);
+        if (decision == 0 && routeDependenciesLeft.get(slot) > 0) {
+            // 还有依赖未写入，此时的结论可能在依赖写入后改变，不记住
+            return plan.routeAt(slot).evaluate(resultPool);
+        }
+        if (decision == 0) {
+            boolean routed = plan.routeAt(slot).evaluate(resultPool);
+            // 并发求值时以先写入的结论为准，写入结论即读完了依赖的结果
+            if (routeDecisions.compareAndSet(slot, 0, routed ? 1 : 2) && readersLeft != null) {
+                for (int dependency : plan.slotDependencies(slot)) {
+                    readerDone(dependency);
+                }
+            }
+            decision = routeDecisions.get(slot);
+        }
+        return decision == 1;
+    }
+
+    /**
+     * ANY 汇聚：由父节点 parent 放行 child，只有第一次调用返回 true
+     */
+    boolean release(int child, int parent) {
+        if (!released.set(child)) {
+            return false;
+        }
+        if (plan.readsReleasingParent(child)) {
+            releasedBy.put(plan.getNode(child).getElement(), plan.getNode(parent).getId());
+        }
+        return true;
+    }
+
+    /**
+     * 节点 node 实际读取的输入结果：ANY 汇聚的节点读取放行它的父节点的结果，其余即 inputResultId
+     */
+    public UUID resultIdFor(Node<?> node, UUID inputResultId) {
+        if (releasedBy.isEmpty()) {
+            return inputResultId;
+        }
+        return releasedBy.getOrDefault(node, inputResultId);
+    }
+
+    /**
+     * child 是否被至少一个父节点放行
+     */
+    boolean isAllowed(int child) {
+        return allowedByAnyParent.get(child);
+    }
+}
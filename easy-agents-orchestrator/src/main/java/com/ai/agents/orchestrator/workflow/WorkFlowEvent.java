@@ -0,0 +1,99 @@
+package com.ai.agents.orchestrator.workflow;
+
+import java.util.UUID;
+
+/**
+ * 流式执行的类型化事件
+ * 节点以其在 {@link WorkFlowPlan} 中的下标标识（nodeIndex），同时附带节点 UUID 便于对照结果池；
+ * timestamp 为事件产生时的毫秒时间戳。消费方可以按 {@link #type()} 直接 switch，无需逐个 instanceof
+ *
+ * <pre>{@code
+ * manager.streamEvents().subscribe(event -> {
+ *     switch (event.type()) {
+ *         case NODE_CHUNK -> send(((WorkFlowEvent.NodeChunk) event).value());
+ *         case WORKFLOW_COMPLETED -> close();
+ *         default -> { }
+ *     }
+ * });
+ * }</pre>
+ *
+ * @author han
+ * @time 2026/10/17 16:50
+ */
+
+public sealed interface WorkFlowEvent {
+
+    enum Type {
+        NODE_STARTED,
+        NODE_CHUNK,
+        NODE_COMPLETED,
+        NODE_SKIPPED,
+        NODE_FAILED,
+        WORKFLOW_COMPLETED
+    }
+
+    Type type();
+
+    long timestamp();
+
+    /**
+     * 节点开始执行
+     */
+    record NodeStarted(int nodeIndex, UUID nodeId, long timestamp) implements WorkFlowEvent {
+        @Override
+        public Type type() {
+            return Type.NODE_STARTED;
+        }
+    }
+
+    /**
+     * 节点的一个输出（开启合并时为一个分块）
+     */
+    record NodeChunk(int nodeIndex, UUID nodeId, Object value, long timestamp) implements WorkFlowEvent {
+        @Override
+        public Type type() {
+            return Type.NODE_CHUNK;
+        }
+    }
+
+    /**
+     * 节点执行完成，result 为写入结果池的聚合结果
+     */
+    record NodeCompleted(int nodeIndex, UUID nodeId, Object result, long timestamp) implements WorkFlowEvent {
+        @Override
+        public Type type() {
+            return Type.NODE_COMPLETED;
+        }
+    }
+
+    /**
+     * 节点的全部父节点都已结清（完成或被跳过），但没有任何父节点路由到它，因此被跳过；
+     * 被跳过节点的后代按同样的规则依次产生该事件
+     */
+    record NodeSkipped(int nodeIndex, UUID nodeId, long timestamp) implements WorkFlowEvent {
+        @Override
+        public Type type() {
+            return Type.NODE_SKIPPED;
+        }
+    }
+
+    /**
+     * 节点执行失败，随后整个事件流以该错误结束
+     */
+    record NodeFailed(int nodeIndex, UUID nodeId, Throwable error, long timestamp) implements WorkFlowEvent {
+        @Override
+        public Type type() {
+            return Type.NODE_FAILED;
+        }
+    }
+
+    /**
+     * 整个工作流执行完成，是事件流的最后一个元素
+     */
+    record WorkFlowCompleted(long timestamp) implements WorkFlowEvent {
+        @Override
+        public Type type() {
+            return Type.WORKFLOW_COMPLETED;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 一次异步启动的工作流执行的句柄
+ * 可以等待结果，也可以随时取消：取消后正在运行的节点会被中断，尚未调度的子节点不会再启动
+ *
+ * @author han
+ * @time 2026/10/17 14:10
+ */
+
+public class WorkFlowExecution {
+
+    private final WorkFlowContext context;
+
+    WorkFlowExecution(WorkFlowContext context) {
+        this.context = context;
+    }
+
+    /**
+     * 本次执行的完成信号，正常结束时携带结果池
+     * 对其调用 cancel() 与 {@link #cancel()} 等价
+     */
+    public CompletableFuture<Map<UUID, NodeResult>> future() {
+        return context.getCompletion();
+    }
+
+    /**
+     * 阻塞等待本次执行结束
+     * @return 本次执行的结果池
+     */
+    public Map<UUID, NodeResult> join() {
+        return context.getCompletion().join();
+    }
+
+    /**
+     * 取消本次执行
+     * @return 执行尚未结束且被本次调用取消时返回 true
+     */
+    public boolean cancel() {
+        return context.cancel(new CancellationException("工作流执行已取消"));
+    }
+
+    /**
+     * 本次执行的检查点 runId，执行失败后可用它再次调用 {@link WorkFlowManager#resumeAsync} 恢复；
+     * 不是以 resumeAsync 启动的执行不记录检查点，为 null
+     */
+    public String getRunId() {
+        return context.getRunId();
+    }
+
+    public boolean isCancelled() {
+        return context.isCancelled();
+    }
+
+    /**
+     * 本次执行的结果池（执行过程中可以读取到已完成节点的结果）
+     */
+    public Map<UUID, NodeResult> getResultPool() {
+        return context.getResultPool();
+    }
+}
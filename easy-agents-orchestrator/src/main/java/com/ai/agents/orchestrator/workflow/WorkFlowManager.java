@@ -1,17 +1,23 @@
 package com.ai.agents.orchestrator.workflow;
 
 import com.ai.agents.common.model.*;
-import com.ai.agents.orchestrator.node.Node;
+import com.ai.agents.orchestrator.node.*;
 import com.ai.agents.orchestrator.util.*;
 import com.ai.agents.orchestrator.util.EasyTree.TreeNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.*;
+import reactor.core.scheduler.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.AbstractMap.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 /**
  * 作为工作流的一个操控器, 职责:
@@ -26,92 +32,413 @@ public class WorkFlowManager<IN> {
     private final Logger log = LoggerFactory.getLogger(WorkFlowManager.class);
     private EasyTree nodes;
 
-    private Map<UUID, NodeResult> resultPool;
+    // 预编译的执行计划，首次执行时编译，之后所有执行共享
+    private volatile WorkFlowPlan plan;
+    // 最近一次执行的结果池，仅为兼容单次执行的用法；并发执行时请使用各自 startBlocking() 的返回值
+    private volatile Map<UUID, NodeResult> resultPool;
     private TreeNode indexNode;
 
-    private final ExecutorService executor;
-
-    // 聚合执行所需的状态：每个节点剩余未完成的父节点数量，以及是否被任一父节点路由命中
-    private Map<TreeNode, AtomicInteger> parentsLeft; // 初始为父节点数量
-    private Map<TreeNode, AtomicBoolean> allowedByAnyParent; // 任一父节点路由命中
-
-    // 流式事件通道：按节点完成顺序向下游发射 (UUID -> NodeResult) 键值对
-    private Sinks.Many<Object> eventSink;
-
-    private WorkFlowManager(ExecutorService executorService) {
+    // 未指定执行器时首次阻塞执行才创建默认线程池，只作为子工作流嵌入使用的管理器不会创建线程池
+    private volatile ExecutorService executor;
+    // executor 是否由管理器自行创建，是则随 shutdown() 关闭
+    private final boolean ownsExecutor;
+    // 按节点类型的并发/速率限制器，在所有执行间共享
+    private final NodeLimiters limiters;
+
+    // 流式执行的调度器：CPU 密集型节点与 I/O 密集型节点分开运行
+    private final Scheduler cpuScheduler;
+    private final Scheduler ioScheduler;
+
+    // 单次执行的超时时间，为 null 时不限制
+    private final Duration timeout;
+
+    // 流式事件的投递策略与累计指标
+    private final StreamDelivery streamDelivery;
+    private final StreamMetrics streamMetrics = new StreamMetrics();
+    // 流式事件合并策略，为 null 时每个输出一个事件
+    private final StreamCoalescing coalescing;
+    // 节点结果缓存，为 null 时不缓存；只对 cacheable 的节点生效
+    private final NodeResultCache cache;
+    // 进行中调用的合并，为 null 时不合并；只对 cacheable 的节点生效
+    private final SingleFlight singleFlight;
+
+    // 平均耗时低于该值的节点自动内联执行，为 0 时只内联声明了 inline 的节点
+    private final long inlineThresholdNanos;
+
+    // 推测执行：路由历史命中率不低于该值时提前启动声明了 speculative 的子节点，为 null 时不推测
+    private final Double speculationMinHitRate;
+    private final RouteHitStats routeHitStats = new RouteHitStats();
+    private final SpeculationMetrics speculationMetrics = new SpeculationMetrics();
+
+    // 检查点存储，为 null 时不记录；只作用于以 resumeAsync 启动的阻塞执行
+    private final CheckpointStore checkpointStore;
+
+    // 大结果的堆外存放：编码后不小于 offHeapMinBytes 的结果按 offHeapCodec 编码存入直接内存（offHeapDir 不为 null 时存入该目录下的映射文件），
+    // offHeapCodec 为 null 时不启用；只作用于阻塞执行。堆外数据只在执行期间由本次执行持有，执行结束时全部释放或解码回堆内
+    private final NodeResultCodec offHeapCodec;
+    private final int offHeapMinBytes;
+    private final Path offHeapDir;
+    // 结果被全部读者读取后即从结果池移除并释放；只作用于阻塞执行
+    private final boolean releaseConsumedResults;
+
+    // 工作窃取模式使用的线程池，为 null 时使用普通的异步执行模式
+    private final ForkJoinPool forkJoinPool;
+
+    // 节点耗时的历史统计，用于估算关键路径
+    private final NodeLatencyStats latencyStats = new NodeLatencyStats();
+    // 按关键路径优先级派发阻塞执行的节点，关闭时按 FIFO 直接提交到执行器
+    private final boolean priorityScheduling;
+    // 包装 executor 的优先级调度器，与 executor 一样在首次阻塞执行时才创建，所有使用 executor 的执行共享
+    private volatile PriorityDispatcher dispatcher;
+
+    private WorkFlowManager(Builder builder) {
         nodes = new EasyTree();
         resultPool = new ConcurrentHashMap<>();
-        // 创建固定大小的线程池，可以根据实际需求调整大小
-        this.executor = executorService != null ? executorService :
-            new ThreadPoolExecutor(
-                    4, 10, 60, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>(50),
-                    r -> new Thread(r, "wf-thread-" + Thread.currentThread().getId()),
-                    new ThreadPoolExecutor.CallerRunsPolicy()
-            );
+        if (builder.executorService != null) {
+            this.executor = builder.executorService;
+        } else if (builder.virtualThreads) {
+            // 每个节点一个虚拟线程，阻塞等待 I/O 时不占用平台线程
+            this.executor = NodeExecutors.newVirtualThreadExecutor();
+        }
+        this.ownsExecutor = builder.executorService == null;
+        this.limiters = new NodeLimiters(builder.limiters);
+        this.cpuScheduler = builder.cpuScheduler != null ? builder.cpuScheduler : Schedulers.parallel();
+        this.ioScheduler = builder.ioScheduler != null ? builder.ioScheduler : Schedulers.boundedElastic();
+        this.timeout = builder.timeout;
+        this.streamDelivery = builder.streamDelivery != null ? builder.streamDelivery : StreamDelivery.backpressure();
+        this.coalescing = builder.coalescing;
+        this.cache = builder.cache;
+        this.singleFlight = builder.singleFlight ? new SingleFlight() : null;
+        this.priorityScheduling = builder.priorityScheduling;
+        this.forkJoinPool = builder.forkJoinPool;
+        this.inlineThresholdNanos = builder.inlineThreshold == null ? 0 : builder.inlineThreshold.toNanos();
+        this.speculationMinHitRate = builder.speculationMinHitRate;
+        this.checkpointStore = builder.checkpointStore;
+        this.offHeapCodec = builder.offHeapCodec;
+        this.offHeapMinBytes = builder.offHeapMinBytes;
+        this.offHeapDir = builder.offHeapDir;
+        this.releaseConsumedResults = builder.releaseConsumedResults;
     }
 
 
 
     
     public TreeNode setStartNode(Node node) {
+        this.plan = null;
         return nodes.setRoot(node);
     }
 
+    /**
+     * 将当前的树结构编译为执行计划，之后的执行都复用该计划
+     * 首次执行时会自动编译；若在执行过后又修改了树结构，需要手动调用本方法重新编译
+     * @return 编译好的执行计划
+     */
+    public synchronized WorkFlowPlan compile() {
+        WorkFlowPlan compiled = WorkFlowPlan.compile(nodes.getRoot());
+        for (Node node : compiled.getElements()) {
+            node.setWorkFlowManager(this);
+        }
+        if (releaseConsumedResults && !compiled.tracksReaders()) {
+            log.warn("releaseConsumedResults disabled: route options without dependsOn may read any result");
+        }
+        this.nodes.printTree();
+        this.plan = compiled;
+        return compiled;
+    }
+
+    private ExecutorService executor() {
+        ExecutorService e = executor;
+        if (e == null) {
+            synchronized (this) {
+                e = executor;
+                if (e == null) {
+                    // 创建固定大小的线程池，可以根据实际需求调整大小
+                    e = NodeExecutors.newDefaultExecutor();
+                    executor = e;
+                }
+            }
+        }
+        return e;
+    }
+
+    /**
+     * 执行器对应的优先级调度器：管理器自己的执行器共享同一个调度器，
+     * 调用方为单次执行传入的其他执行器（包括子工作流继承的父执行器）各用一个只服务本次执行的调度器
+     */
+    private PriorityDispatcher dispatcher(ExecutorService executor) {
+        if (executor != this.executor) {
+            return new PriorityDispatcher(executor);
+        }
+        PriorityDispatcher d = dispatcher;
+        if (d == null) {
+            synchronized (this) {
+                d = dispatcher;
+                if (d == null) {
+                    d = new PriorityDispatcher(executor);
+                    dispatcher = d;
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * 关闭管理器：优先级调度器不再接受新任务，管理器自行创建的执行器（默认线程池/虚拟线程执行器）在已提交的任务完成后关闭；
+     * 通过 executorService 传入的执行器由调用方负责关闭。关闭后正在进行的执行在提交下一个节点时失败，新的阻塞执行也会失败
+     */
+    public void shutdown() {
+        ExecutorService e;
+        synchronized (this) {
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+            e = executor;
+        }
+        if (ownsExecutor && e != null) {
+            e.shutdown();
+        }
+    }
+
+    private WorkFlowPlan plan() {
+        WorkFlowPlan p = plan;
+        if (p == null) {
+            synchronized (this) {
+                p = plan;
+                if (p == null) {
+                    p = compile();
+                }
+            }
+        }
+        return p;
+    }
+
 
     /**
      * 阻塞式启动工作流
-     * @return
+     * @return 本次执行的结果池
      */
     public Map<UUID, NodeResult> startBlocking() {
+        if (nodes.getRoot() == null) {
+            return null;
+        }
+        return startAsync().join();
+    }
 
-        nodes.forEach((node -> {
-            node.setWorkFlowManager(this);
-        }));
-
-        // 获取根节点
-        TreeNode root = nodes.getRoot();
-        if (root == null) {
+    /**
+     * 阻塞式启动工作流，并以 input 作为本次执行的根节点输入
+     * 同一个管理器可以被多个线程以不同输入同时调用
+     * @param input 根节点输入
+     * @return 本次执行的结果池
+     */
+    public Map<UUID, NodeResult> startBlocking(IN input) {
+        if (nodes.getRoot() == null) {
             return null;
         }
-        log.info("start workflow");
-        prepareAggregationState();
-        // 启动工作流，并等待其所有分支执行完成（阻塞版）
-        executeWorkflowBlocking(root).join();
-        log.info("end workflow");
+        return startAsync(input).join();
+    }
 
-        this.nodes.printTree();
+    /**
+     * 异步启动工作流，立即返回执行句柄，可通过句柄等待结果或取消执行
+     * @return 本次执行的句柄
+     */
+    public WorkFlowExecution startAsync() {
+        return runBlocking(new WorkFlowContext(plan(), false, null), executor());
+    }
 
-        return resultPool;
+    /**
+     * 异步启动工作流，并以 input 作为本次执行的根节点输入
+     * @param input 根节点输入
+     * @return 本次执行的句柄
+     */
+    public WorkFlowExecution startAsync(IN input) {
+        return runBlocking(new WorkFlowContext(plan(), true, input), executor());
+    }
+
+    /**
+     * 异步启动工作流，节点任务提交到给定的执行器而不是本管理器的执行器
+     * 供 {@link SubWorkFlowNode} 在父工作流的执行器上运行子工作流；开启优先级调度或工作窃取模式时仍使用各自的线程池
+     * @param input 根节点输入
+     * @param executor 执行节点任务的执行器
+     * @return 本次执行的句柄
+     */
+    public WorkFlowExecution startAsync(IN input, ExecutorService executor) {
+        Objects.requireNonNull(executor, "executor不能为null");
+        return runBlocking(new WorkFlowContext(plan(), true, input), executor);
+    }
+
+    /**
+     * 以 runId 启动或恢复执行（需要配置检查点存储）：
+     * 存储中已有该 runId 的记录时，已记录结果的节点直接使用记录的结果而不再执行，其余节点照常调度；
+     * 没有记录时即一次新的执行。执行成功结束后记录被清除
+     * @param runId 执行标识，如业务单号
+     * @param input 根节点输入（根节点已有记录时不会使用）
+     * @return 本次执行的句柄
+     */
+    public WorkFlowExecution resumeAsync(String runId, IN input) {
+        Objects.requireNonNull(runId, "runId不能为null");
+        if (checkpointStore == null) {
+            throw new IllegalStateException("未配置checkpointStore");
+        }
+        WorkFlowContext context = new WorkFlowContext(plan(), true, input);
+        context.setCheckpoint(runId, checkpointStore.load(runId));
+        return runBlocking(context, executor());
     }
 
+    /**
+     * 阻塞式启动或恢复执行，见 {@link #resumeAsync}
+     * @return 本次执行的结果池（包括恢复的节点结果）
+     */
+    public Map<UUID, NodeResult> resumeBlocking(String runId, IN input) {
+        return resumeAsync(runId, input).join();
+    }
+
+    private WorkFlowExecution runBlocking(WorkFlowContext context, ExecutorService executor) {
+        context.setExecutor(executor);
+        context.setLimiters(limiters);
+        this.resultPool = context.getResultPool();
+        if (releaseConsumedResults && context.getPlan().tracksReaders()) {
+            context.trackReaders();
+        }
+        if (priorityScheduling) {
+            // 以本次执行开始时的历史耗时估算各节点的剩余关键路径
+            WorkFlowPlan plan = context.getPlan();
+            context.setPriorities(plan.criticalPaths(i -> latencyStats.estimate(plan.getNode(i).getId())),
+                    dispatcher(executor));
+        }
+        CompletableFuture<Map<UUID, NodeResult>> completion = context.getCompletion();
+        log.info("start workflow");
+        if (timeout != null) {
+            ScheduledFuture<?> deadline = NodeExecutors.timer().schedule(
+                    () -> context.cancel(new TimeoutException("工作流执行超时: " + timeout)),
+                    timeout.toNanos(), TimeUnit.NANOSECONDS);
+            completion.whenComplete((v, ex) -> deadline.cancel(false));
+        }
+        if (forkJoinPool != null) {
+            // 工作窃取模式：节点失败时直接终止本次执行，全部任务结束后完成
+            RunCompleter done = new RunCompleter(() -> {
+                // 节点失败或执行被取消时任务同样正常结束，此时已以异常结束，保留检查点以便恢复
+                if (!context.isCancelled()) {
+                    completeCheckpoint(context);
+                    context.moveResultsOnHeap();
+                    completion.complete(context.getResultPool());
+                }
+                log.info("end workflow");
+            }, ex -> {
+                // 任务中抛出的异常（如路由条件求值失败）不会经过 onCompletion
+                context.cancel(unwrap(ex));
+                log.info("end workflow");
+            });
+            forkJoinPool.execute(new NodeTask(done, context, WorkFlowPlan.ROOT));
+            return new WorkFlowExecution(context);
+        }
+        // 启动工作流，所有分支执行完成后结束本次执行；节点失败时已直接终止本次执行
+        PendingNodes pending = new PendingNodes(() -> {
+            if (!context.isCancelled()) {
+                completeCheckpoint(context);
+                context.moveResultsOnHeap();
+                completion.complete(context.getResultPool());
+            }
+            log.info("end workflow");
+        });
+        trampoline(() -> executeWorkflowBlocking(context, WorkFlowPlan.ROOT, pending));
+        return new WorkFlowExecution(context);
+    }
+
+    /**
+     * 流式启动工作流
+     * 返回的 Flux 是冷的：订阅时才开始执行，每次订阅都是一次独立的执行；
+     * 取消订阅会一并取消正在运行的节点流，尚未调度的子节点不会再启动
+     * 新代码建议使用类型化的 {@link #streamEvents()}
+     * @return 本次执行的事件流，元素为 (节点UUID -> NodeResult) 键值对，节点失败时 NodeResult 中为异常
+     */
     public Flux<Object> startStreaming() {
+        return toLegacyEvents(streamEvents());
+    }
 
-        nodes.forEach((node -> {
-            node.setWorkFlowManager(this);
-        }));
+    /**
+     * 流式启动工作流，并以 input 作为本次执行的根节点输入
+     * @param input 根节点输入
+     * @return 本次执行的事件流
+     */
+    public Flux<Object> startStreaming(IN input) {
+        return toLegacyEvents(streamEvents(input));
+    }
 
-        // 获取根节点
-        TreeNode root = nodes.getRoot();
-        if (root == null) {
+    /**
+     * 流式启动工作流，返回类型化事件流（节点开始/输出/完成/跳过/失败，以及工作流完成）
+     * 订阅语义与 {@link #startStreaming()} 相同
+     * @return 本次执行的类型化事件流
+     */
+    public Flux<WorkFlowEvent> streamEvents() {
+        if (nodes.getRoot() == null) {
             return Flux.empty();
         }
-        log.info("start workflow");
-        prepareAggregationState();
+        return runStreaming(plan(), false, null);
+    }
+
+    /**
+     * 流式启动工作流并返回类型化事件流，以 input 作为本次执行的根节点输入
+     * @param input 根节点输入
+     * @return 本次执行的类型化事件流
+     */
+    public Flux<WorkFlowEvent> streamEvents(IN input) {
+        if (nodes.getRoot() == null) {
+            return Flux.empty();
+        }
+        return runStreaming(plan(), true, input);
+    }
 
-        // 初始化多播 sink，允许多个订阅者并在背压下进行缓冲
-        this.eventSink = Sinks.many().multicast().onBackpressureBuffer();
+    /**
+     * 兼容旧的事件格式：只保留节点输出与失败，转换为 (节点UUID -> NodeResult) 键值对
+     */
+    private static Flux<Object> toLegacyEvents(Flux<WorkFlowEvent> events) {
+        return events.handle((event, sink) -> {
+            if (event instanceof WorkFlowEvent.NodeChunk chunk) {
+                sink.next(new SimpleEntry<>(chunk.nodeId(), new NodeResult(chunk.value())));
+            } else if (event instanceof WorkFlowEvent.NodeFailed failed) {
+                sink.next(new SimpleEntry<>(failed.nodeId(), new NodeResult(failed.error())));
+            }
+        });
+    }
 
-        // 启动工作流（流式版）；完成时结束 Flux，出错时传递错误
-        executeWorkflowStreaming(root).whenComplete((v, exception) -> {
-            if (exception != null) {
-                eventSink.tryEmitError(exception);
-            } else {
-                eventSink.tryEmitComplete();
+    private Flux<WorkFlowEvent> runStreaming(WorkFlowPlan plan, boolean overrideRootInput, Object rootInput) {
+        Flux<WorkFlowEvent> run = Flux.defer(() -> {
+            WorkFlowContext context = new WorkFlowContext(plan, overrideRootInput, rootInput);
+            context.setLimiters(limiters);
+            this.resultPool = context.getResultPool();
+            log.info("start workflow");
+            Flux<WorkFlowEvent> events = executeWorkflowStreaming(context, WorkFlowPlan.ROOT, null)
+                    .concatWith(Mono.fromSupplier(() -> emitted(new WorkFlowEvent.WorkFlowCompleted(System.currentTimeMillis()))));
+            if (timeout != null) {
+                events = withDeadline(events, timeout, "工作流执行超时: " + timeout);
+            }
+            if (streamDelivery.getMode() == StreamDelivery.Mode.DROP_OLDEST) {
+                // 节点全速执行，订阅方跟不上时丢弃最旧的事件
+                events = events.onBackpressureBuffer(streamDelivery.getBufferSize(),
+                        dropped -> streamMetrics.onDropped(), BufferOverflowStrategy.DROP_OLDEST);
             }
+            return events
+                    .doOnNext(event -> streamMetrics.onDelivered())
+                    .doOnComplete(() -> log.info("end workflow"))
+                    .doOnCancel(() -> log.info("workflow cancelled"));
         });
+        if (streamDelivery.getReplayHistory() > 0) {
+            // 所有订阅方共享同一次执行，晚到的订阅方先回放历史事件
+            run = run.replay(streamDelivery.getReplayHistory()).refCount();
+        }
+        return run;
+    }
+
+    private WorkFlowEvent emitted(WorkFlowEvent event) {
+        streamMetrics.onEmitted();
+        return event;
+    }
 
-        return eventSink.asFlux();
+    /**
+     * 流式事件投递的累计指标
+     */
+    public StreamMetrics getStreamMetrics() {
+        return streamMetrics;
     }
 
 
@@ -187,180 +514,810 @@ public class WorkFlowManager<IN> {
         onPath.remove(node);
     }
 
+    /**
+     * 最近一次执行的结果池
+     * 并发执行时该值只代表最后启动的那一次，请优先使用 startBlocking() 的返回值
+     */
     public Map<UUID, NodeResult> getResultPool() {
         return resultPool;
     }
 
 
     /**
-     * 采用深度优先的并发模型执行工作流。
-     * 每个节点执行完毕后，会为其所有满足路由条件的子节点分别创建新的并发分支。
+     * 采用深度优先的并发模型执行工作流（纯响应式）。
+     * 节点流在其调度器上运行，边发射边记录；节点流完成后结算子节点，
+     * 就绪的子节点各自成为一个新的分支，通过 merge 并发执行，整个过程不阻塞任何线程。
+     * 流水线子节点例外：它们与父节点同时启动，直接订阅父节点的实时输出。
      *
-     * @param node 当前要执行的节点。
-     * @return 一个 CompletableFuture，代表该节点及其所有后续分支的执行状态。
-     */
-    private CompletableFuture<Void> executeWorkflowStreaming(TreeNode node) {
-
-        // 1. 消费当前节点的流式输出：边发射边记录最后一个元素
-        AtomicReference<Object> last = new AtomicReference<>(null);
-        CompletableFuture nodeCompleted = node.getElement().executeNodeStreaming()
-            .doOnNext(item -> {
-                last.set(item);
-                if (eventSink != null) {
-                    eventSink.tryEmitNext(new SimpleEntry<>(node.getId(), new NodeResult(item)));
+     * @param context 本次执行的上下文。
+     * @param index 当前要执行的节点在计划中的下标。
+     * @param upstream 流水线父节点的实时输出，普通节点为 null。
+     * @return 该节点及其所有后续分支的事件流。
+     */
+    private Flux<WorkFlowEvent> executeWorkflowStreaming(WorkFlowContext context, int index, Flux<?> upstream) {
+
+        WorkFlowPlan plan = context.getPlan();
+        TreeNode node = plan.getNode(index);
+        UUID nodeId = node.getId();
+        Node<?> element = node.getElement();
+        Map<UUID, NodeResult> resultPool = context.getResultPool();
+        Scheduler scheduler = element.isIoBound() ? ioScheduler : cpuScheduler;
+
+        // 1. 消费当前节点的流式输出：边发射边增量聚合，流结束时聚合结果先写入结果池再向下游传递完成信号
+        StreamReducer<Object> reducer = (StreamReducer<Object>) element.getReducer();
+        AtomicReference<Object> acc = new AtomicReference<>(reducer.init());
+        Flux<?> source;
+        if (upstream == null) {
+            Flux<?> execution = Flux.defer(() -> {
+                long start = System.nanoTime();
+                return element.executeNodeStreaming(context)
+                        .doOnComplete(() -> latencyStats.record(nodeId, System.nanoTime() - start));
+            });
+            if (!runsInline(element, nodeId)) {
+                execution = execution.subscribeOn(scheduler);
+            }
+            NodeLimiter limiter = limiters.of(element);
+            if (limiter != null) {
+                execution = limiter.limit(execution);
+            }
+            if (singleFlight != null && element.isCacheable()) {
+                Flux<Object> call = (Flux<Object>) execution;
+                execution = Flux.defer(() -> singleFlight.executeStreaming(
+                        new NodeResultCache.Key(element, element.cacheKeyOf(context), true), () -> call));
+            }
+            if (cache != null && element.isCacheable()) {
+                execution = cachedStreaming(context, element, execution);
+            }
+            source = execution;
+        } else {
+            // 父节点的输出在父节点的线程上到达，切换到本节点的调度器上处理；
+            // 节点内部的每次调用经 context.limitStreaming 受限制器约束，流水线节点不能开启结果缓存（编译时校验）
+            source = Flux.defer(() -> {
+                long start = System.nanoTime();
+                return element.executeNodePipelined(context, upstream.publishOn(scheduler))
+                        .doOnComplete(() -> latencyStats.record(nodeId, System.nanoTime() - start));
+            });
+        }
+        if (element.getTimeout() != null) {
+            // 超时后节点流被取消，错误向上传播，其下游不会被调度
+            source = withDeadline(source, element.getTimeout(), "节点执行超时: " + nodeId);
+        }
+        Flux<?> outputs = source
+            .doOnNext(item -> acc.set(reducer.accumulate(acc.get(), item)))
+            // 将聚合结果（可能为 null）写入结果池
+            .doOnComplete(() -> {
+                resultPool.put(nodeId, new NodeResult(reducer.finish(acc.get())));
+                context.resultAvailable(index);
+            });
+
+        // 流水线子节点与本节点共享同一次执行的输出，全部订阅后才开始
+        List<Flux<WorkFlowEvent>> pipelined = new ArrayList<>();
+        int pipelinedCount = 0;
+        for (int e = plan.childStart(index), end = plan.childEnd(index); e < end; e++) {
+            if (plan.isPipelined(e)) {
+                pipelinedCount++;
+            }
+        }
+        if (pipelinedCount > 0 && !context.isCancelled()) {
+            Flux<?> shared = outputs.publish().autoConnect(pipelinedCount + 1);
+            for (int e = plan.childStart(index), end = plan.childEnd(index); e < end; e++) {
+                if (plan.isPipelined(e)) {
+                    // 父节点失败时由父节点的分支报告错误，子节点只需等待被取消
+                    pipelined.add(executeWorkflowStreaming(context, plan.childAt(e),
+                            shared.onErrorResume(ex -> Flux.never())));
                 }
-            })
-            .doOnError(ex -> {
+            }
+            outputs = shared;
+        }
+
+        if (coalescing != null) {
+            // 聚合已在上一步完成，合并只减少投递的事件数
+            outputs = coalescing.apply(outputs);
+        }
+        Flux<WorkFlowEvent> nodeEvents = Mono.fromSupplier(() -> emitted(new WorkFlowEvent.NodeStarted(index, nodeId, System.currentTimeMillis())))
+            .concatWith(outputs.map(item -> emitted(new WorkFlowEvent.NodeChunk(index, nodeId, item, System.currentTimeMillis()))))
+            .onErrorResume(ex -> {
                 log.error("node stream error", ex);
-                if (eventSink != null) {
-                    eventSink.tryEmitNext(new SimpleEntry<>(node.getId(), new NodeResult(ex)));
-                }
+                return Flux.just(emitted(new WorkFlowEvent.NodeFailed(index, nodeId, ex, System.currentTimeMillis())))
+                        .concatWith(Flux.error(ex));
             })
-            .then()
-            .toFuture();
+            .concatWith(Mono.fromSupplier(() -> emitted(new WorkFlowEvent.NodeCompleted(
+                    index, nodeId, resultPool.get(nodeId).getValue(), System.currentTimeMillis()))));
+        if (streamDelivery.getMode() == StreamDelivery.Mode.LATEST_PER_NODE) {
+            // 结果池的聚合在此之前完成，这里只影响投递：每个节点只保留最新的一个未投递事件
+            nodeEvents = nodeEvents.onBackpressureBuffer(1,
+                    dropped -> streamMetrics.onDropped(), BufferOverflowStrategy.DROP_OLDEST);
+        }
 
-        return nodeCompleted.thenCompose(v -> {
-            // 将最后一个元素（可能为 null）写入结果池，作为该节点的聚合结果
-            NodeResult finalResult = new NodeResult(last.get());
-            resultPool.put(node.getId(), finalResult);
+        // 2. 节点流完成后才结算其余子节点
+        Flux<WorkFlowEvent> branch = nodeEvents.concatWith(Flux.defer(() -> {
             // 基于“聚合”语义：
             // 1) 记录当前父节点对各子节点的路由命中
             // 2) 将各子节点的 parentsLeft 计数减一
             // 3) 仅当 parentsLeft==0 且被至少一个父节点命中时，才调度执行该子节点
 
             // 简述逻辑效果: 当一个节点上被多个父节点实际路由到时, 会等到所有父节点都执行完, 才会执行该子节点
-            // 简述逻辑: 通过一个map 去记录 某个子节点目前有多个父节点没有执行完
-            List<TreeNode> allChildren = node.getChildren();
-            List<TreeNode> allowedChildrenFromThisParent = node.getNextNodes(resultPool);
-            Set<TreeNode> allowedSet = new HashSet<>(allowedChildrenFromThisParent);
-
-            List<CompletableFuture<Void>> readyFutures = new ArrayList<>();
-
-            // 无论是否执行都要减去一个left，因为这个初始的left是所有的子节点，无关她是否执行，如果该节点能执行则加入执行队列，不是则不加入
-            for (TreeNode child : allChildren) {
-                // 标记是否被本父节点放行
-                if (allowedSet.contains(child)) {
-                    allowedByAnyParent.get(child).set(true);
-                }
+            List<Flux<WorkFlowEvent>> branches = new ArrayList<>();
+            scheduleChildren(context, index, true,
+                    child -> branches.add(executeWorkflowStreaming(context, child, null)),
+                    child -> branches.add(Flux.just(emitted(new WorkFlowEvent.NodeSkipped(
+                            child, plan.getNode(child).getId(), System.currentTimeMillis())))));
+            return merge(branches);
+        }));
+        if (pipelined.isEmpty()) {
+            return branch;
+        }
+        pipelined.add(0, branch);
+        return merge(pipelined);
+    }
+
+    /**
+     * 流式执行的缓存：命中时按原顺序重放缓存的输出，未命中时执行并在正常结束后记录全部输出
+     */
+    private Flux<?> cachedStreaming(WorkFlowContext context, Node<?> element, Flux<?> execution) {
+        return Flux.<Object>defer(() -> {
+            NodeResultCache.Key key = new NodeResultCache.Key(element, element.cacheKeyOf(context), true);
+            NodeResultCache.Entry hit = cache.get(key);
+            if (hit != null) {
+                return Flux.fromIterable(hit.chunks());
+            }
+            List<Object> chunks = new ArrayList<>();
+            return ((Flux<Object>) execution)
+                    .doOnNext(chunks::add)
+                    .doOnComplete(() -> cache.put(key, new NodeResultCache.Entry(null, Collections.unmodifiableList(chunks))));
+        });
+    }
+
+    private Flux<WorkFlowEvent> merge(List<Flux<WorkFlowEvent>> branches) {
+        // LATEST_PER_NODE 下不在合并处预取，避免事件堆积在合并队列中
+        return streamDelivery.getMode() == StreamDelivery.Mode.LATEST_PER_NODE
+                ? Flux.merge(1, branches.toArray(new Flux[0]))
+                : Flux.merge(branches);
+    }
+
+    /**
+     * 为整个流设置截止时间：从订阅开始计时，到期未结束则取消上游并以 TimeoutException 结束
+     */
+    private static <T> Flux<T> withDeadline(Flux<T> flux, Duration deadline, String message) {
+        // cache 使所有元素共享同一个计时器，而不是每个元素重新计时
+        Mono<Long> timer = Mono.delay(deadline, NodeExecutors.timerScheduler()).cache();
+        return flux.timeout(timer, item -> timer, Flux.error(() -> new TimeoutException(message)));
+    }
 
-                // 父计数 -1
-                int left = parentsLeft.get(child).decrementAndGet();
-                if (left == 0) {
-                    // 全部父节点已完成，若至少一个父节点放行，则执行
-                    if (allowedByAnyParent.get(child).get()) {
-                        readyFutures.add(executeWorkflowStreaming(child));
-                    } else {
-                        log.info("skip child {}: no parent routed to it", child.getId());
-                    }
+    /**
+     * 阻塞式执行：不进行流式事件发射，仅维护结果池与并发调度。
+     * 节点先在其限制器上异步排队，拿到名额后作为一个任务提交到执行器并登记到上下文中，
+     * 执行被取消或节点超时时会撤销排队或中断对应任务。节点失败时直接终止本次执行，
+     * 全部已启动的节点都结束后由 pending 结束本次执行
+     */
+    private void executeWorkflowBlocking(WorkFlowContext context, int index, PendingNodes pending) {
+        runNodeAsync(context, index).whenComplete((v, ex) -> trampoline(() -> {
+            try {
+                if (ex != null) {
+                    context.cancel(unwrap(ex));
+                    return;
                 }
+                // 基于“聚合”语义：
+                // 1) 记录当前父节点对各子节点的路由命中
+                // 2) 将各子节点的 parentsLeft 计数减一
+                // 3) 仅当 parentsLeft==0 且被至少一个父节点命中时，才调度执行该子节点
+                scheduleChildren(context, index, false, child -> {
+                    pending.add();
+                    trampoline(() -> executeWorkflowBlocking(context, child, pending));
+                }, child -> { });
+            } catch (Throwable e) {
+                context.cancel(e);
+            } finally {
+                pending.done();
             }
+        }));
+    }
+
+    // 当前线程上正在运行的蹦床队列，没有时为 null
+    private static final ThreadLocal<ArrayDeque<Runnable>> TRAMPOLINE = new ThreadLocal<>();
 
-            if (readyFutures.isEmpty()) {
-                return CompletableFuture.completedFuture(null);
+    /**
+     * 在当前线程上运行 task；当前线程已在蹦床中时排到队尾，由最外层依次执行。
+     * 内联节点、缓存命中与恢复的结果都会同步完成，经由蹦床调度子节点后，长链不会逐层加深调用栈
+     */
+    private static void trampoline(Runnable task) {
+        ArrayDeque<Runnable> queue = TRAMPOLINE.get();
+        if (queue != null) {
+            queue.add(task);
+            return;
+        }
+        queue = new ArrayDeque<>();
+        TRAMPOLINE.set(queue);
+        try {
+            for (Runnable next = task; next != null; next = queue.poll()) {
+                next.run();
             }
+        } finally {
+            TRAMPOLINE.remove();
+        }
+    }
 
-            return CompletableFuture.allOf(readyFutures.toArray(new CompletableFuture[0]));
+    /**
+     * 一次阻塞执行中已启动但尚未结束（含子节点调度）的节点数，归零时执行结束
+     */
+    private static final class PendingNodes {
+        private final AtomicInteger count = new AtomicInteger(1);
+        private final Runnable onDone;
+
+        PendingNodes(Runnable onDone) {
+            this.onDone = onDone;
+        }
+
+        void add() {
+            count.incrementAndGet();
+        }
+
+        void done() {
+            if (count.decrementAndGet() == 0) {
+                onDone.run();
+            }
+        }
+    }
+
+    /**
+     * 异步执行单个节点（不调度子节点）：结果或异常写入结果池，并设置节点超时
+     * @return 节点完成信号，节点失败/超时/执行已终止时异常结束
+     */
+    private CompletableFuture<Void> runNodeAsync(WorkFlowContext context, int index) {
+        TreeNode node = context.getPlan().getNode(index);
+        CompletableFuture<Void> nodeDone = new CompletableFuture<>();
+        if (context.isCancelled()) {
+            // 执行已终止，不再启动新的节点
+            nodeDone.cancel(false);
+            return nodeDone;
+        }
+
+        if (speculationMinHitRate != null) {
+            speculate(context, index);
+        }
+
+        // 1. 异步执行当前节点（命中缓存时同步完成）；恢复执行时已记录的节点直接使用记录的结果，已推测执行的节点直接采用其结果
+        Map<UUID, NodeResult> resultPool = context.getResultPool();
+        NodeResult restored = context.restoredResult(index);
+        CompletableFuture<Object> speculation = restored == null ? context.takeSpeculation(index) : null;
+        if (speculation != null) {
+            speculationMetrics.onCommitted();
+        }
+        CompletableFuture<Object> result = restored != null ? CompletableFuture.completedFuture(restored.getValue())
+                : speculation != null ? speculation : runNodeBlocking(context, index);
+        result.whenComplete((r, ex) -> {
+            if (ex == null) {
+                log.info("node result: {}", r);
+                // 将结果安全地放入结果池，并在调度子节点之前记录检查点
+                context.putResult(node.getId(), restored != null ? restored : store(r));
+                if (restored == null) {
+                    checkpoint(context, index, r);
+                }
+                context.resultAvailable(index);
+                context.consumed(index);
+                nodeDone.complete(null);
+            } else {
+                Throwable cause = unwrap(ex);
+                log.error("node throw exception", cause);
+                // 将异常结果放入结果池
+                resultPool.put(node.getId(), new NodeResult(cause.getMessage()));
+                nodeDone.completeExceptionally(cause);
+            }
         });
+
+        Duration nodeTimeout = node.getElement().getTimeout();
+        if (nodeTimeout != null) {
+            // 排队等待名额的时间也计入超时
+            ScheduledFuture<?> deadline = NodeExecutors.timer().schedule(
+                    () -> result.completeExceptionally(new TimeoutException("节点执行超时: " + node.getId())),
+                    nodeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            result.whenComplete((v, ex) -> deadline.cancel(false));
+        }
+        return nodeDone;
     }
 
     /**
-     * 阻塞式执行：不进行流式事件发射，仅维护结果池与并发调度。
+     * 父节点 index 启动时，提前启动其值得推测的子节点：
+     * 子节点声明了 speculative、只有这一个父节点、出边带路由选项且历史命中率足够高，
+     * 并且其输入不依赖父节点的结果（输入已在结果池中或为构建时给定的输入）
      */
-    private CompletableFuture<Void> executeWorkflowBlocking(TreeNode node) {
+    private void speculate(WorkFlowContext context, int index) {
+        WorkFlowPlan plan = context.getPlan();
+        for (int e = plan.childStart(index), end = plan.childEnd(index); e < end; e++) {
+            int child = plan.childAt(e);
+            TreeNode childNode = plan.getNode(child);
+            Node<?> element = childNode.getElement();
+            if (!element.isSpeculative() || !plan.hasRoute(e) || plan.isPipelined(e) || plan.getParentCount(child) != 1
+                    || context.restoredResult(child) != null) {
+                continue;
+            }
+            if (!routeHitStats.isLikely(childNode.getId(), speculationMinHitRate)) {
+                continue;
+            }
+            UUID dependency = element.getInputResultId();
+            if (dependency != null && !context.getResultPool().containsKey(dependency)) {
+                continue;
+            }
+            speculationMetrics.onStarted();
+            context.speculate(child, runNodeBlocking(context, child));
+        }
+    }
 
-        // 1. 异步执行当前节点
-        return CompletableFuture.supplyAsync(() -> {
-            Object result = null;
-            try {
-                result = node.getElement().executeNodeBlocking();
-                log.info("node result: {}", result);
+    /**
+     * 包装写入结果池的结果：开启堆外存放时，编码后足够大的结果存放在堆外，
+     * 编解码器不支持的结果与写入映射文件失败的结果仍留在堆上
+     */
+    private NodeResult store(Object result) {
+        NodeResult heap = new NodeResult(result);
+        if (offHeapCodec == null || result == null || result instanceof Number || result instanceof Boolean
+                || result instanceof Character || (result instanceof String s && s.length() * 3L < offHeapMinBytes)) {
+            // UTF-8 下每个字符至多 3 字节，这类结果不必编码就知道不会超过阈值
+            return heap;
+        }
+        ByteBuffer encoded;
+        try {
+            encoded = offHeapCodec.encode(heap);
+        } catch (IllegalArgumentException e) {
+            log.debug("keep result on heap: {}", e.getMessage());
+            return heap;
+        }
+        if (encoded.remaining() < offHeapMinBytes) {
+            return heap;
+        }
+        if (offHeapDir == null) {
+            return OffHeapNodeResult.direct(encoded, heap.getType(), offHeapCodec);
+        }
+        try {
+            return OffHeapNodeResult.mapped(encoded, heap.getType(), offHeapCodec, offHeapDir);
+        } catch (IOException e) {
+            log.warn("map result failed, keep it on heap", e);
+            return heap;
+        }
+    }
+
+    /**
+     * 记录节点结果的检查点；写入失败只影响恢复（该节点会重新执行），不影响本次执行
+     */
+    private void checkpoint(WorkFlowContext context, int index, Object result) {
+        if (context.getRunId() == null) {
+            return;
+        }
+        try {
+            checkpointStore.record(context.getRunId(), context.getPlan().checkpointKey(index), new NodeResult(result));
+        } catch (RuntimeException e) {
+            log.warn("record checkpoint failed, node {} will rerun on resume", context.getPlan().getNode(index).getId(), e);
+        }
+    }
 
-                // 将结果安全地放入结果池
-                NodeResult nr = new NodeResult(result);
-                resultPool.put(node.getId(), nr);
+    private void completeCheckpoint(WorkFlowContext context) {
+        if (context.getRunId() == null) {
+            return;
+        }
+        try {
+            checkpointStore.complete(context.getRunId());
+        } catch (RuntimeException e) {
+            log.warn("complete checkpoint failed: {}", context.getRunId(), e);
+        }
+    }
 
-            } catch (Exception e) {
-                log.error("node throw exception", e);
-                // 将异常结果放入结果池
-                NodeResult err = new NodeResult(e.getMessage());
-                resultPool.put(node.getId(), err);
-                throw new RuntimeException(e);
+    /**
+     * 推测执行的累计指标
+     */
+    public SpeculationMetrics getSpeculationMetrics() {
+        return speculationMetrics;
+    }
+
+    /**
+     * 工作窃取模式下一次执行的根：全部节点任务结束后回调
+     */
+    private static final class RunCompleter extends CountedCompleter<Void> {
+        private final Runnable onDone;
+        private final Consumer<Throwable> onFailure;
+
+        RunCompleter(Runnable onDone, Consumer<Throwable> onFailure) {
+            this.onDone = onDone;
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public void compute() {
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            onDone.run();
+        }
+
+        @Override
+        public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+            onFailure.accept(ex);
+            return true;
+        }
+    }
+
+    /**
+     * 工作窃取模式下的节点任务
+     * 纯计算节点直接在工作线程上执行；就绪的子节点中最后一个在当前线程上接着执行，其余 fork 出去供其他线程窃取，
+     * 一条链上的节点因此不经过任何队列与 future。
+     * I/O 密集、设置了超时/限制器或参与调用合并的节点仍走执行器的异步路径，完成后再回到池中调度其子节点
+     */
+    private final class NodeTask extends CountedCompleter<Void> {
+        private final WorkFlowContext context;
+        private final int index;
+
+        NodeTask(CountedCompleter<?> completer, WorkFlowContext context, int index) {
+            super(completer);
+            this.context = context;
+            this.index = index;
+        }
+
+        @Override
+        public void compute() {
+            int next = index;
+            while (next >= 0 && !context.isCancelled()) {
+                int current = next;
+                Node<?> element = context.getPlan().getNode(current).getElement();
+                if (needsAsync(element)) {
+                    addToPendingCount(1);
+                    runNodeAsync(context, current).whenComplete((v, ex) -> {
+                        try {
+                            if (ex != null) {
+                                context.cancel(unwrap(ex));
+                            } else {
+                                scheduleChildren(context, current, false, this::spawn, child -> { });
+                            }
+                        } catch (Throwable e) {
+                            // 在回调中抛出会被 CompletableFuture 吞掉，待完成计数也不会再归零
+                            context.cancel(e);
+                        } finally {
+                            tryComplete();
+                        }
+                    });
+                    break;
+                }
+                if (!runNodeInline(context, current)) {
+                    break;
+                }
+                List<Integer> ready = new ArrayList<>();
+                scheduleChildren(context, current, false, ready::add, child -> { });
+                for (int i = 0; i < ready.size() - 1; i++) {
+                    spawn(ready.get(i));
+                }
+                next = ready.isEmpty() ? -1 : ready.get(ready.size() - 1);
             }
-            return null;
+            tryComplete();
+        }
 
-        }, executor)
-        .thenCompose(v -> {
-            // 基于“聚合”语义：
-            // 1) 记录当前父节点对各子节点的路由命中
-            // 2) 将各子节点的 parentsLeft 计数减一
-            // 3) 仅当 parentsLeft==0 且被至少一个父节点命中时，才调度执行该子节点
+        private void spawn(int child) {
+            addToPendingCount(1);
+            NodeTask task = new NodeTask(this, context, child);
+            if (getPool() == forkJoinPool) {
+                task.fork();
+            } else {
+                // 异步路径的回调不在池内线程上
+                forkJoinPool.execute(task);
+            }
+        }
+    }
 
-            List<TreeNode> allChildren = node.getChildren();
-            List<TreeNode> allowedChildrenFromThisParent = node.getNextNodes(resultPool);
-            Set<TreeNode> allowedSet = new HashSet<>(allowedChildrenFromThisParent);
+    private boolean needsAsync(Node<?> element) {
+        // 扇出节点的元素在自己的调度器上执行，在工作线程上等待它们会占住该线程
+        return element.isIoBound()
+                || element instanceof MapNode
+                || element.getTimeout() != null
+                || limiters.of(element) != null
+                || (singleFlight != null && element.isCacheable());
+    }
 
-            List<CompletableFuture<Void>> readyFutures = new ArrayList<>();
-            // 无论是否执行都要减去一个left，因为这个初始的left是所有的子节点，无关她是否执行，如果该节点能执行则加入执行队列，不是则不加入
-            for (TreeNode child : allChildren) {
-                // 标记是否被本父节点放行
-                if (allowedSet.contains(child)) {
-                    allowedByAnyParent.get(child).set(true);
+    /**
+     * 在当前线程上执行纯计算节点并写入结果池，失败时终止本次执行
+     * @return 是否执行成功
+     */
+    private boolean runNodeInline(WorkFlowContext context, int index) {
+        TreeNode node = context.getPlan().getNode(index);
+        Node<?> element = node.getElement();
+        Map<UUID, NodeResult> resultPool = context.getResultPool();
+        try {
+            NodeResultCache.Key key = cache != null && element.isCacheable()
+                    ? new NodeResultCache.Key(element, element.cacheKeyOf(context), false) : null;
+            NodeResultCache.Entry hit = key != null ? cache.get(key) : null;
+            NodeResult restored = context.restoredResult(index);
+            Object result;
+            if (restored != null) {
+                result = restored.getValue();
+            } else if (hit != null) {
+                result = hit.result();
+            } else {
+                long start = System.nanoTime();
+                result = element.executeNodeBlocking(context);
+                latencyStats.record(node.getId(), System.nanoTime() - start);
+                if (key != null) {
+                    cache.put(key, new NodeResultCache.Entry(result, null));
                 }
+            }
+            log.info("node result: {}", result);
+            context.putResult(node.getId(), restored != null ? restored : store(result));
+            if (restored == null) {
+                checkpoint(context, index, result);
+            }
+            context.resultAvailable(index);
+            context.consumed(index);
+            return true;
+        } catch (Exception e) {
+            log.error("node throw exception", e);
+            resultPool.put(node.getId(), new NodeResult(e.getMessage()));
+            context.cancel(e);
+            return false;
+        }
+    }
 
-                // 父计数 -1
-                int left = parentsLeft.get(child).decrementAndGet();
-                if (left == 0) {
-                    // 全部父节点已完成，若至少一个父节点放行，则执行
-                    if (allowedByAnyParent.get(child).get()) {
-                        readyFutures.add(executeWorkflowBlocking(child));
-                    } else {
-                        log.info("skip child {}: no parent routed to it", child.getId());
-                    }
+    /**
+     * 执行单个节点：依次经过结果缓存、进行中调用合并与限制器
+     */
+    private CompletableFuture<Object> runNodeBlocking(WorkFlowContext context, int index) {
+        Node<?> element = context.getPlan().getNode(index).getElement();
+        NodeResultCache.Key key = null;
+        if ((cache != null || singleFlight != null) && element.isCacheable()) {
+            try {
+                key = new NodeResultCache.Key(element, element.cacheKeyOf(context), false);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            NodeResultCache.Entry hit = cache != null ? cache.get(key) : null;
+            if (hit != null) {
+                // 命中缓存时不排队、不占用线程
+                return CompletableFuture.completedFuture(hit.result());
+            }
+        }
+        CompletableFuture<Object> result = key != null && singleFlight != null
+                // 相同的调用正在进行时直接等待其结果，同样不占用名额
+                ? singleFlight.executeBlocking(key, () -> invokeLimited(context, index))
+                : invokeLimited(context, index);
+        if (key != null && cache != null) {
+            NodeResultCache.Key cacheKey = key;
+            CompletableFuture<Object> source = result;
+            // 写入缓存后才算完成，下一次执行一定能命中
+            result = source.thenApply(r -> {
+                cache.put(cacheKey, new NodeResultCache.Entry(r, null));
+                return r;
+            });
+            // 超时等提前结束同样作用到实际的调用上
+            result.whenComplete((v, ex) -> {
+                if (ex != null) {
+                    source.completeExceptionally(unwrap(ex));
                 }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 在节点的限制器内执行：先异步排队等待名额，拿到名额后才提交到执行器，排队期间不占用任何线程
+     * 返回的 future 被提前结束（超时）时，排队会被撤销，运行中的节点会被中断
+     */
+    private CompletableFuture<Object> invokeLimited(WorkFlowContext context, int index) {
+        NodeLimiter limiter = limiters.of(context.getPlan().getNode(index).getElement());
+        if (limiter == null) {
+            return submit(context, index);
+        }
+        CompletableFuture<Object> out = new CompletableFuture<>();
+        CompletableFuture<NodeLimiter.Permit> acquiring = limiter.acquire();
+        // 已拿到名额时 cancel 无效果
+        out.whenComplete((v, ex) -> acquiring.cancel(false));
+        acquiring.thenAccept(permit -> {
+            if (out.isDone()) {
+                permit.release(NodeLimiter.Outcome.IGNORED);
+                return;
             }
+            CompletableFuture<Object> running = submit(context, index);
+            out.whenComplete((v, ex) -> running.cancel(true));
+            running.whenComplete((v, ex) -> {
+                permit.release(outcomeOf(out, ex));
+                if (ex != null) {
+                    out.completeExceptionally(unwrap(ex));
+                } else {
+                    out.complete(v);
+                }
+            });
+        });
+        return out;
+    }
 
-            if (readyFutures.isEmpty()) {
-                return CompletableFuture.completedFuture(null);
+    /**
+     * 超时与节点失败视为拥塞信号，取消与负载无关
+     */
+    private static NodeLimiter.Outcome outcomeOf(CompletableFuture<?> out, Throwable ex) {
+        Throwable reason = out.isCompletedExceptionally() ? out.handle((v, e) -> unwrap(e)).join() : ex == null ? null : unwrap(ex);
+        if (reason == null) {
+            return NodeLimiter.Outcome.SUCCESS;
+        }
+        return reason instanceof CancellationException ? NodeLimiter.Outcome.IGNORED : NodeLimiter.Outcome.DROPPED;
+    }
+
+    /**
+     * 把节点作为一个任务提交到执行器（开启优先级调度时按剩余关键路径派发），并登记到上下文中以便执行被取消时中断
+     * 返回的 future 被取消时同样会中断该任务
+     */
+    private CompletableFuture<Object> submit(WorkFlowContext context, int index) {
+        TreeNode node = context.getPlan().getNode(index);
+        Node<?> element = node.getElement();
+        CompletableFuture<?> async;
+        try {
+            async = element.executeNodeAsync(context);
+        } catch (Throwable e) {
+            // 同步抛出的异常同样作为节点失败返回；在限制器回调中抛出会被吞掉，执行将永远不结束
+            return CompletableFuture.failedFuture(e);
+        }
+        if (async != null) {
+            return awaitAsync(context, node, async);
+        }
+        if (runsInline(element, node.getId())) {
+            // 直接在完成父节点（或发放名额）的线程上执行，不提交任务
+            try {
+                long start = System.nanoTime();
+                Object result = element.executeNodeBlocking(context);
+                latencyStats.record(node.getId(), System.nanoTime() - start);
+                return CompletableFuture.completedFuture(result);
+            } catch (Throwable e) {
+                return CompletableFuture.failedFuture(e);
             }
-            return CompletableFuture.allOf(readyFutures.toArray(new CompletableFuture[0]));
+        }
+        CompletableFuture<Object> running = new CompletableFuture<>();
+        FutureTask<Object> task = new FutureTask<>(() -> {
+            long start = System.nanoTime();
+            Object result = element.executeNodeBlocking(context);
+            latencyStats.record(node.getId(), System.nanoTime() - start);
+            return result;
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    running.cancel(false);
+                    return;
+                }
+                try {
+                    running.complete(get());
+                } catch (ExecutionException e) {
+                    running.completeExceptionally(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running.completeExceptionally(e);
+                }
+            }
+        };
+        context.track(task);
+        running.whenComplete((v, ex) -> {
+            context.untrack(task);
+            // 任务已结束时无效果
+            task.cancel(true);
         });
+        try {
+            PriorityDispatcher dispatcher = context.getDispatcher();
+            if (dispatcher != null) {
+                dispatcher.execute(task, context.priorityOf(index));
+            } else {
+                context.getExecutor().execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            running.completeExceptionally(e);
+        }
+        return running;
     }
 
-    private void prepareAggregationState() {
-        TreeNode root = nodes.getRoot();
-        this.parentsLeft = new ConcurrentHashMap<>();
-        this.allowedByAnyParent = new ConcurrentHashMap<>();
+    /**
+     * 等待节点自行发起的异步执行，不占用执行器线程；执行被取消或超时时一并取消该 future
+     */
+    private CompletableFuture<Object> awaitAsync(WorkFlowContext context, TreeNode node, CompletableFuture<?> async) {
+        long start = System.nanoTime();
+        CompletableFuture<Object> running = new CompletableFuture<>();
+        context.track(async);
+        running.whenComplete((v, ex) -> {
+            context.untrack(async);
+            async.cancel(true);
+        });
+        async.whenComplete((v, ex) -> {
+            if (ex != null) {
+                running.completeExceptionally(unwrap(ex));
+            } else {
+                latencyStats.record(node.getId(), System.nanoTime() - start);
+                running.complete(v);
+            }
+        });
+        return running;
+    }
 
-        List<TreeNode> allNodes = collectAllNodes(root);
-        for (TreeNode n : allNodes) {
-            int parentCount = n.getParentNodes() == null ? 0 : n.getParentNodes().size();
-            parentsLeft.put(n, new AtomicInteger(parentCount));
-            allowedByAnyParent.put(n, new AtomicBoolean(false));
+    /**
+     * 节点是否内联执行：声明了 inline，或开启了自动内联且历史平均耗时低于阈值的非 I/O 节点
+     * 超时依赖可中断的任务，设置了超时的节点从不内联
+     */
+    private boolean runsInline(Node<?> element, UUID nodeId) {
+        if (element.getTimeout() != null) {
+            return false;
         }
+        if (element.isInline()) {
+            return true;
+        }
+        return inlineThresholdNanos > 0 && !element.isIoBound() && latencyStats.isFasterThan(nodeId, inlineThresholdNanos);
+    }
 
-        // 根节点：无父、可直接执行。其 allowed 与否不影响，它会被直接调度。
-        parentsLeft.get(root).set(0);
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
     }
 
-    private List<TreeNode> collectAllNodes(TreeNode root) {
-        List<TreeNode> list = new ArrayList<>();
-        if (root == null) {
-            return list;
-        }
-        Queue<TreeNode> q = new ArrayDeque<>();
-        Set<TreeNode> seen = new HashSet<>();
-        q.add(root);
-        seen.add(root);
-        while (!q.isEmpty()) {
-            TreeNode cur = q.poll();
-            list.add(cur);
-            for (TreeNode c : cur.getChildren()) {
-                if (seen.add(c)) {
-                    q.add(c);
-                }
+    /**
+     * 父节点完成后，按“聚合”语义结算其全部子节点，就绪的子节点交给 ready 执行，被跳过的子节点交给 skipped
+     * 被跳过的节点视为不放行它的任何子节点，其后代随即按同样的规则结算：整棵被剪掉的子树都会被标记为跳过，
+     * 其中汇聚节点的计数也得以结清，另一侧父节点放行的汇聚节点不会因此一直等待
+     * 就绪的子节点在全部结算（包括跳过的传播）完成后才交给 ready，被跳过的读者此时已经结束，不会晚于就绪节点释放结果；
+     * 开启优先级调度时按剩余关键路径从长到短交给 ready：先派发的节点可能立即被空闲线程取走，因此派发顺序本身也要遵循优先级
+     * @param pipelinedStarted 流水线子节点是否已随父节点启动（流式执行），是则不再结算
+     */
+    private void scheduleChildren(WorkFlowContext context, int index, boolean pipelinedStarted,
+                                  IntConsumer ready, IntConsumer skipped) {
+        List<Integer> readyNodes = new ArrayList<>();
+        settleChildren(context, index, pipelinedStarted, readyNodes::add, skipped);
+        if (context.getDispatcher() != null) {
+            // 稳定排序，优先级相同的保持出边顺序
+            readyNodes.sort(Comparator.comparingDouble(child -> -context.priorityOf(child)));
+        }
+        readyNodes.forEach(ready::accept);
+    }
+
+    private void settleChildren(WorkFlowContext context, int index, boolean pipelinedStarted,
+                                IntConsumer ready, IntConsumer skipped) {
+        WorkFlowPlan plan = context.getPlan();
+        Deque<Integer> skippedNodes = new ArrayDeque<>();
+        // 无论是否执行都要减去一个left，因为这个初始的left是所有的子节点，无关她是否执行，如果该节点能执行则加入执行队列，不是则不加入
+        for (int e = plan.childStart(index), end = plan.childEnd(index); e < end; e++) {
+            if (pipelinedStarted && plan.isPipelined(e)) {
+                continue;
+            }
+            int child = plan.childAt(e);
+            // 标记是否被本父节点放行，并将父计数 -1
+            boolean routed = context.isRouted(e);
+            if (speculationMinHitRate != null && plan.hasRoute(e) && plan.getParentCount(child) == 1) {
+                routeHitStats.record(plan.getNode(child).getId(), routed);
+            }
+            settle(context, index, child, routed, ready, skippedNodes);
+        }
+        // 逐层向下传播跳过（用显式栈，长链不会栈溢出）
+        while (!skippedNodes.isEmpty()) {
+            int node = skippedNodes.pop();
+            if (context.discardSpeculation(node)) {
+                speculationMetrics.onDiscarded();
+            }
+            log.info("skip child {}: no parent routed to it", plan.getNode(node).getId());
+            context.consumed(node);
+            skipped.accept(node);
+            for (int e = plan.childStart(node), end = plan.childEnd(node); e < end; e++) {
+                settle(context, node, plan.childAt(e), false, ready, skippedNodes);
+            }
+        }
+    }
+
+    /**
+     * 父节点 parent 对 child 的一次到达：ALL 汇聚在全部父节点结清后决定执行或跳过；
+     * ANY 汇聚在第一个放行的父节点到达时立即执行，全部父节点都不放行时跳过
+     */
+    private void settle(WorkFlowContext context, int parent, int child, boolean routed,
+                        IntConsumer ready, Deque<Integer> skippedNodes) {
+        int left = context.arrive(child, routed);
+        if (context.getPlan().isAnyJoin(child)) {
+            if (routed && context.release(child, parent)) {
+                ready.accept(child);
+            } else if (left == 0 && !context.isAllowed(child)) {
+                skippedNodes.push(child);
+            }
+            return;
+        }
+        if (left == 0) {
+            // 全部父节点已完成，若至少一个父节点放行，则执行
+            if (context.isAllowed(child)) {
+                ready.accept(child);
+            } else {
+                skippedNodes.push(child);
             }
         }
-        return list;
     }
 
 
@@ -370,13 +1327,216 @@ public class WorkFlowManager<IN> {
 
     public static class Builder {
         private ExecutorService executorService;
+        private boolean virtualThreads;
+        private final Map<Class<? extends Node>, NodeLimiter> limiters = new LinkedHashMap<>();
+        private Scheduler cpuScheduler;
+        private Scheduler ioScheduler;
+        private Duration timeout;
+        private StreamDelivery streamDelivery;
+        private StreamCoalescing coalescing;
+        private NodeResultCache cache;
+        private boolean singleFlight;
+        private boolean priorityScheduling;
+        private ForkJoinPool forkJoinPool;
+        private Duration inlineThreshold;
+        private Double speculationMinHitRate;
+        private CheckpointStore checkpointStore;
+        private NodeResultCodec offHeapCodec;
+        private int offHeapMinBytes;
+        private Path offHeapDir;
+        private boolean releaseConsumedResults;
 
         public Builder executorService(ExecutorService executorService) {
             this.executorService = executorService;
             return this;
         }
+
+        /**
+         * 使用虚拟线程执行节点：每个节点一个虚拟线程，适合大量阻塞 I/O 的节点（需要 JDK 21+，否则退化为按需线程池）
+         * 与 executorService 互斥
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * 限制某类节点（含子类）在该管理器所有执行中的最大并发数
+         * @param nodeType 节点类型，如 AIChatNode.class
+         * @param maxConcurrency 最大并发数
+         */
+        public Builder concurrencyLimit(Class<? extends Node> nodeType, int maxConcurrency) {
+            Objects.requireNonNull(nodeType, "nodeType不能为null");
+            return limiter(nodeType, NodeLimiter.fixed(maxConcurrency));
+        }
+
+        /**
+         * 为某类节点（含子类）设置并发/速率限制器，如自适应并发上限或令牌桶限速
+         * 节点建造器上单独设置的限制器优先
+         * @param nodeType 节点类型，如 AIChatNode.class
+         * @param limiter 限制器
+         */
+        public Builder limiter(Class<? extends Node> nodeType, NodeLimiter limiter) {
+            Objects.requireNonNull(nodeType, "nodeType不能为null");
+            Objects.requireNonNull(limiter, "limiter不能为null");
+            this.limiters.put(nodeType, limiter);
+            return this;
+        }
+
+        /**
+         * 流式执行时 CPU 密集型节点使用的调度器，默认 Schedulers.parallel()
+         */
+        public Builder cpuScheduler(Scheduler cpuScheduler) {
+            this.cpuScheduler = cpuScheduler;
+            return this;
+        }
+
+        /**
+         * 流式执行时 I/O 密集型节点使用的调度器，默认 Schedulers.boundedElastic()
+         */
+        public Builder ioScheduler(Scheduler ioScheduler) {
+            this.ioScheduler = ioScheduler;
+            return this;
+        }
+
+        /**
+         * 单次执行的整体超时时间：到期后正在运行的节点被中断/取消，尚未调度的节点不再启动
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * 流式事件的投递策略，默认 {@link StreamDelivery#backpressure()}
+         */
+        public Builder streamDelivery(StreamDelivery streamDelivery) {
+            this.streamDelivery = streamDelivery;
+            return this;
+        }
+
+        /**
+         * 开启流式事件合并：同一节点的连续输出按时间窗口或字符数合并为一个分块事件
+         */
+        public Builder coalescing(StreamCoalescing coalescing) {
+            this.coalescing = coalescing;
+            return this;
+        }
+
+        /**
+         * 节点结果缓存，只对声明了 cacheable 的节点生效，如 {@link NodeResultCache#lru(int, Duration)}
+         */
+        public Builder cache(NodeResultCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * 合并进行中的相同调用：多个执行同时以相同输入运行同一个 cacheable 节点时只真正调用一次，
+         * 阻塞执行共享结果，流式执行共享并多播全部输出
+         */
+        public Builder singleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        /**
+         * 关键路径优先调度：阻塞执行时，就绪节点按剩余关键路径长度（由拓扑与各节点的历史平均耗时估算）排队，
+         * 最长路径上的节点先拿到线程，以缩短宽扇出工作流的整体耗时
+         */
+        public Builder priorityScheduling(boolean priorityScheduling) {
+            this.priorityScheduling = priorityScheduling;
+            return this;
+        }
+
+        /**
+         * 工作窃取执行模式：阻塞执行时纯计算节点直接在 ForkJoinPool 的工作线程上运行，
+         * 链上的后继节点就地执行、其余就绪节点 fork 出去被窃取，适合大量纯 CodeNode 的 CPU 密集型图，
+         * 如 ForkJoinPool.commonPool() 或 new ForkJoinPool(核数)
+         * I/O 密集、设置了超时/限制器的节点仍在 executorService 上执行；与 priorityScheduling 互斥
+         */
+        public Builder forkJoinPool(ForkJoinPool forkJoinPool) {
+            this.forkJoinPool = forkJoinPool;
+            return this;
+        }
+
+        /**
+         * 自动内联：历史平均耗时低于 threshold 的非 I/O 节点（至少执行过几次后）在完成父节点的线程上直接执行，
+         * 不再提交任务或切换调度器，如 Duration.ofNanos(50_000)
+         */
+        public Builder inlineThreshold(Duration threshold) {
+            this.inlineThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 开启推测执行（仅普通阻塞执行模式）：路由历史命中率不低于 minHitRate 的 speculative 子节点与父节点同时启动，
+         * 路由命中时直接采用其结果，未命中时取消并丢弃，如 0.9
+         */
+        public Builder speculation(double minHitRate) {
+            if (minHitRate <= 0 || minHitRate > 1) {
+                throw new IllegalArgumentException("minHitRate必须在(0, 1]之间: " + minHitRate);
+            }
+            this.speculationMinHitRate = minHitRate;
+            return this;
+        }
+
+        /**
+         * 检查点存储：以 resumeAsync(runId, input) 启动的阻塞执行中每个节点完成后记录其结果，
+         * 失败后以同一个 runId 再次调用即可从已完成的节点恢复执行；startBlocking/startAsync 启动的执行不记录
+         */
+        public Builder checkpointStore(CheckpointStore checkpointStore) {
+            this.checkpointStore = checkpointStore;
+            return this;
+        }
+
+        /**
+         * 大结果存放在堆外：阻塞执行中编码后不小于 minBytes 的结果以 codec 编码存入直接内存，读取时解码出新的副本，
+         * 含有 codec 不支持的类型的结果仍留在堆上。集合解码为 ArrayList/LinkedHashSet/LinkedHashMap，读取方不应依赖对象同一性
+         * @param minBytes 编码后达到该大小才存放在堆外
+         */
+        public Builder offHeapResults(int minBytes, NodeResultCodec codec) {
+            return offHeapResults(minBytes, codec, null);
+        }
+
+        /**
+         * 同 {@link #offHeapResults(int, NodeResultCodec)}，但写入 dir 下的临时文件并以内存映射方式读取，
+         * 适合超出直接内存预算的超大结果；结果释放时删除对应文件
+         *
+         * 堆外数据归执行所有，不会交给调用方：执行成功时结果池中仍在堆外的结果（没有读者的输出，或未开启 releaseConsumedResults 时的全部结果）
+         * 解码回堆内后释放，执行失败、超时或被取消时全部释放，之后完成的节点结果也立即释放
+         */
+        public Builder offHeapResults(int minBytes, NodeResultCodec codec, Path dir) {
+            if (minBytes < 0) {
+                throw new IllegalArgumentException("minBytes不能为负数: " + minBytes);
+            }
+            this.offHeapCodec = Objects.requireNonNull(codec, "codec不能为null");
+            this.offHeapMinBytes = minBytes;
+            this.offHeapDir = dir;
+            return this;
+        }
+
+        /**
+         * 阻塞执行中，结果被全部读者（inputResultId 指向它的节点、dependsOn 声明依赖它的路由选项）读取后即从结果池移除并释放，
+         * 没有读者的结果（通常是工作流的输出）保留到执行结束。工作流中存在没有声明依赖的路由选项时不生效
+         * 开启后执行返回的结果池不再包含已释放的中间结果
+         */
+        public Builder releaseConsumedResults(boolean releaseConsumedResults) {
+            this.releaseConsumedResults = releaseConsumedResults;
+            return this;
+        }
+
         public WorkFlowManager build() {
-            return new WorkFlowManager(executorService);
+            if (executorService != null && virtualThreads) {
+                throw new IllegalStateException("executorService与virtualThreads不能同时设置");
+            }
+            if (forkJoinPool != null && priorityScheduling) {
+                throw new IllegalStateException("forkJoinPool与priorityScheduling不能同时设置");
+            }
+            if (forkJoinPool != null && speculationMinHitRate != null) {
+                throw new IllegalStateException("forkJoinPool与speculation不能同时设置");
+            }
+            return new WorkFlowManager(this);
         }
     }
 
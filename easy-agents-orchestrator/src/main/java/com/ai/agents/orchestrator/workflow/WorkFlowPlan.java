@@ -0,0 +1,434 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.node.Node;
+import com.ai.agents.orchestrator.util.*;
+import com.ai.agents.orchestrator.util.EasyTree.TreeNode;
+
+import java.util.*;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * 预编译的工作流执行计划（不可变）
+ * 由 EasyTree 编译一次得到拓扑快照，之后可被任意多次、并发地执行；
+ * 每一次执行的可变状态全部放在 {@link WorkFlowContext} 中
+ *
+ * 编译时按广度优先顺序为每个节点分配一个连续的 int 下标（根节点为 0），
+ * 邻接关系以 CSR 形式存放在 int 数组中：节点 i 的出边为 [childStart[i], childStart[i + 1])，
+ * 调度热路径上只做数组访问，不再做 TreeNode/UUID 的哈希查找
+ *
+ * 注意：编译后再修改 EasyTree 不会影响已有的计划，需要重新调用 {@link WorkFlowManager#compile()}
+ *
+ * @author han
+ * @time 2026/10/17 09:12
+ */
+
+public final class WorkFlowPlan {
+
+    public static final int ROOT = 0;
+
+    // 下标 -> 节点，广度优先顺序
+    private final TreeNode[] nodes;
+    // 出边区间起点，长度为 size + 1
+    private final int[] childStart;
+    // 出边指向的子节点下标
+    private final int[] childIndex;
+    // 出边上的路由选项，与 childIndex 对齐，可能为 null
+    private final RouteOption[] edgeRoutes;
+    // 出边是否为流水线边，与 childIndex 对齐
+    private final boolean[] edgePipelined;
+    // 每个节点的父节点数量，根节点为 0
+    private final int[] parentCounts;
+
+    // 声明了依赖的路由选项按实例去重后的槽位：出边 -> 槽位（-1 表示没有），槽位 -> 路由选项
+    private final int[] edgeRouteSlot;
+    private final RouteOption[] slotRoutes;
+    // 槽位依赖的节点数量，以及节点下标 -> 依赖它的槽位
+    private final int[] slotDependencyCounts;
+    private final int[][] slotsByDependency;
+
+    // 以 ANY 方式汇聚的节点，以及其中 inputResultId 指向某个父节点的节点（读取放行它的父节点的结果）
+    private final boolean[] anyJoin;
+    private final boolean[] readsReleasingParent;
+
+    // 结果的读者：节点下标 -> 它可能读取的结果（节点下标），每个结果的读者数量（包括声明依赖它的路由槽位），槽位 -> 依赖的节点
+    private final int[][] reads;
+    private final int[] readerCounts;
+    private final int[][] slotDependencies;
+    // 是否存在没有声明依赖的路由选项：它们可能读取任意结果，此时无法判断结果何时不再被读取
+    private final boolean opaqueRoutes;
+
+    private WorkFlowPlan(TreeNode[] nodes, int[] childStart, int[] childIndex,
+                         RouteOption[] edgeRoutes, boolean[] edgePipelined, int[] parentCounts,
+                         int[] edgeRouteSlot, RouteOption[] slotRoutes, int[] slotDependencyCounts, int[][] slotsByDependency,
+                         boolean[] anyJoin, boolean[] readsReleasingParent,
+                         int[][] reads, int[] readerCounts, int[][] slotDependencies, boolean opaqueRoutes) {
+        this.nodes = nodes;
+        this.childStart = childStart;
+        this.childIndex = childIndex;
+        this.edgeRoutes = edgeRoutes;
+        this.edgePipelined = edgePipelined;
+        this.parentCounts = parentCounts;
+        this.edgeRouteSlot = edgeRouteSlot;
+        this.slotRoutes = slotRoutes;
+        this.slotDependencyCounts = slotDependencyCounts;
+        this.slotsByDependency = slotsByDependency;
+        this.anyJoin = anyJoin;
+        this.readsReleasingParent = readsReleasingParent;
+        this.reads = reads;
+        this.readerCounts = readerCounts;
+        this.slotDependencies = slotDependencies;
+        this.opaqueRoutes = opaqueRoutes;
+    }
+
+    /**
+     * 从根节点开始编译执行计划
+     * @param root 工作流根节点
+     * @return 不可变的执行计划
+     */
+    static WorkFlowPlan compile(TreeNode root) {
+        Objects.requireNonNull(root, "未设置开始节点（根节点为空）");
+
+        // 1. 广度优先分配下标（编译期才使用哈希表）
+        List<TreeNode> order = new ArrayList<>();
+        Map<TreeNode, Integer> indexOf = new HashMap<>();
+        Queue<TreeNode> q = new ArrayDeque<>();
+        q.add(root);
+        indexOf.put(root, 0);
+        int edgeCount = 0;
+        while (!q.isEmpty()) {
+            TreeNode cur = q.poll();
+            order.add(cur);
+            for (TreeNode c : cur.getChildrenWithRouteOptions().keySet()) {
+                edgeCount++;
+                if (!indexOf.containsKey(c)) {
+                    indexOf.put(c, indexOf.size());
+                    q.add(c);
+                }
+            }
+        }
+
+        // 2. 生成 CSR 邻接数组，并按出边统计父节点数量（只统计可达的父节点）
+        int n = order.size();
+        TreeNode[] nodes = order.toArray(new TreeNode[0]);
+        int[] childStart = new int[n + 1];
+        int[] childIndex = new int[edgeCount];
+        RouteOption[] edgeRoutes = new RouteOption[edgeCount];
+        boolean[] edgePipelined = new boolean[edgeCount];
+        int[] parentCounts = new int[n];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            childStart[i] = e;
+            for (Map.Entry<TreeNode, RouteOption> entry : nodes[i].getChildrenWithRouteOptions().entrySet()) {
+                int c = indexOf.get(entry.getKey());
+                childIndex[e] = c;
+                edgeRoutes[e] = entry.getValue();
+                edgePipelined[e] = nodes[i].isPipelinedChild(entry.getKey());
+                if (edgePipelined[e] && edgeRoutes[e] != null) {
+                    // 路由条件依赖父节点的完整结果，流水线子节点在父节点结束前就已启动
+                    throw new IllegalStateException("流水线边上不能设置路由选项: " + entry.getKey().getId());
+                }
+                if (edgePipelined[e] && entry.getKey().getElement().isCacheable()) {
+                    // 结果缓存与调用合并以节点的完整输入为键，流水线节点的输入是父节点的实时输出
+                    throw new IllegalStateException("流水线子节点不能开启cacheable: " + entry.getKey().getId());
+                }
+                parentCounts[c]++;
+                e++;
+            }
+        }
+        childStart[n] = e;
+        parentCounts[ROOT] = 0;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (edgePipelined[edge] && parentCounts[childIndex[edge]] != 1) {
+                throw new IllegalStateException("流水线子节点只能有一个父节点: " + nodes[childIndex[edge]].getId());
+            }
+        }
+
+        // 3. 为声明了依赖的路由选项分配槽位，同一实例出现在多条边上时共用一个槽位
+        Map<RouteOption, Integer> slotOf = new IdentityHashMap<>();
+        int[] edgeRouteSlot = new int[edgeCount];
+        boolean opaqueRoutes = false;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            RouteOption route = edgeRoutes[edge];
+            edgeRouteSlot[edge] = route != null && route.hasDeclaredDependencies()
+                    ? slotOf.computeIfAbsent(route, r -> slotOf.size()) : -1;
+            opaqueRoutes |= route != null && edgeRouteSlot[edge] < 0;
+        }
+        RouteOption[] slotRoutes = new RouteOption[slotOf.size()];
+        int[] slotDependencyCounts = new int[slotRoutes.length];
+        int[][] slotDependencies = new int[slotRoutes.length][];
+        List<List<Integer>> dependents = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        Map<UUID, Integer> indexById = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indexById.put(nodes[i].getId(), i);
+        }
+        for (Map.Entry<RouteOption, Integer> entry : slotOf.entrySet()) {
+            int slot = entry.getValue();
+            slotRoutes[slot] = entry.getKey();
+            List<Integer> deps = new ArrayList<>();
+            for (UUID dependency : entry.getKey().getDependencies()) {
+                Integer dep = indexById.get(dependency);
+                if (dep == null) {
+                    throw new IllegalStateException("路由选项依赖的节点不在工作流中: " + dependency);
+                }
+                dependents.get(dep).add(slot);
+                deps.add(dep);
+                slotDependencyCounts[slot]++;
+            }
+            slotDependencies[slot] = deps.stream().mapToInt(Integer::intValue).toArray();
+        }
+        int[][] slotsByDependency = new int[n][];
+        for (int i = 0; i < n; i++) {
+            slotsByDependency[i] = dependents.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // 4. 汇聚方式
+        boolean[] anyJoin = new boolean[n];
+        boolean[] readsReleasingParent = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            anyJoin[i] = nodes[i].getElement().getJoinMode() == JoinMode.ANY;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int edge = childStart[i]; edge < childStart[i + 1]; edge++) {
+                int c = childIndex[edge];
+                if (anyJoin[c] && nodes[i].getId().equals(nodes[c].getElement().getInputResultId())) {
+                    readsReleasingParent[c] = true;
+                }
+            }
+        }
+
+        // 5. 结果的读者：inputResultId 指向它的节点（读取放行它的父节点的 ANY 汇聚节点计为全部父节点的读者），
+        //    以及声明依赖它的路由槽位
+        List<Set<Integer>> parents = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            parents.add(new LinkedHashSet<>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (int edge = childStart[i]; edge < childStart[i + 1]; edge++) {
+                parents.get(childIndex[edge]).add(i);
+            }
+        }
+        int[][] reads = new int[n][];
+        int[] readerCounts = new int[n];
+        for (int i = 0; i < n; i++) {
+            UUID input = nodes[i].getElement().getInputResultId();
+            Integer dep = input == null ? null : indexById.get(input);
+            if (readsReleasingParent[i]) {
+                reads[i] = parents.get(i).stream().mapToInt(Integer::intValue).toArray();
+            } else {
+                reads[i] = dep == null ? new int[0] : new int[]{dep};
+            }
+            for (int r : reads[i]) {
+                readerCounts[r]++;
+            }
+        }
+        for (int[] deps : slotDependencies) {
+            for (int dep : deps) {
+                readerCounts[dep]++;
+            }
+        }
+
+        return new WorkFlowPlan(nodes, childStart, childIndex, edgeRoutes, edgePipelined, parentCounts,
+                edgeRouteSlot, slotRoutes, slotDependencyCounts, slotsByDependency, anyJoin, readsReleasingParent,
+                reads, readerCounts, slotDependencies, opaqueRoutes);
+    }
+
+    public TreeNode getRoot() {
+        return nodes[ROOT];
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public TreeNode getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * 节点 index 的第一条出边
+     */
+    public int childStart(int index) {
+        return childStart[index];
+    }
+
+    /**
+     * 节点 index 的出边结束位置（不含）
+     */
+    public int childEnd(int index) {
+        return childStart[index + 1];
+    }
+
+    /**
+     * 出边 edge 指向的子节点下标
+     */
+    public int childAt(int edge) {
+        return childIndex[edge];
+    }
+
+    public int getParentCount(int index) {
+        return parentCounts[index];
+    }
+
+    /**
+     * 出边 edge 是否为流水线边：流式执行时其子节点与父节点同时启动
+     */
+    public boolean isPipelined(int edge) {
+        return edgePipelined[edge];
+    }
+
+    /**
+     * 判断出边 edge 在父节点完成后是否放行
+     * @param edge 出边下标
+     * @param resultPool 当前执行的结果池
+     * @return 没有路由选项或路由条件满足时返回 true
+     */
+    public boolean isRouted(int edge, Map<UUID, NodeResult> resultPool) {
+        RouteOption routeOption = edgeRoutes[edge];
+        return routeOption == null || routeOption.evaluate(resultPool);
+    }
+
+    /**
+     * 节点 index 的检查点键：下标与节点类型，由同一段代码构建的工作流在不同进程中得到相同的键
+     */
+    String checkpointKey(int index) {
+        return index + ":" + nodes[index].getElement().getClass().getName();
+    }
+
+    /**
+     * 节点 index 是否以 ANY 方式汇聚
+     */
+    public boolean isAnyJoin(int index) {
+        return anyJoin[index];
+    }
+
+    /**
+     * 节点 index 是否读取放行它的父节点的结果
+     */
+    boolean readsReleasingParent(int index) {
+        return readsReleasingParent[index];
+    }
+
+    /**
+     * 出边 edge 上是否设置了路由选项
+     */
+    public boolean hasRoute(int edge) {
+        return edgeRoutes[edge] != null;
+    }
+
+    /**
+     * 出边 edge 上声明了依赖的路由选项的槽位，没有时为 -1
+     */
+    int routeSlotOf(int edge) {
+        return edgeRouteSlot[edge];
+    }
+
+    int routeSlotCount() {
+        return slotRoutes.length;
+    }
+
+    RouteOption routeAt(int slot) {
+        return slotRoutes[slot];
+    }
+
+    int routeDependencyCount(int slot) {
+        return slotDependencyCounts[slot];
+    }
+
+    /**
+     * 依赖节点 index 的路由槽位
+     */
+    int[] routesDependingOn(int index) {
+        return slotsByDependency[index];
+    }
+
+    /**
+     * 能否判断结果何时不再被读取（不存在没有声明依赖的路由选项）
+     */
+    public boolean tracksReaders() {
+        return !opaqueRoutes;
+    }
+
+    /**
+     * 节点 index 可能读取的结果
+     */
+    int[] readsOf(int index) {
+        return reads[index];
+    }
+
+    /**
+     * 读取节点 index 结果的节点与路由槽位数量
+     */
+    int readerCount(int index) {
+        return readerCounts[index];
+    }
+
+    /**
+     * 路由槽位 slot 依赖的节点
+     */
+    int[] slotDependencies(int slot) {
+        return slotDependencies[slot];
+    }
+
+    /**
+     * 计算每个节点的剩余关键路径长度：节点自身的估算耗时加上其后代中最长的一条路径
+     * 计划中的下标是广度优先顺序而非拓扑顺序，因此按深度优先后序计算；存在环时环上的回边按 0 计
+     * @param cost 节点下标 -> 估算耗时
+     * @return 下标 -> 剩余关键路径长度
+     */
+    double[] criticalPaths(IntToDoubleFunction cost) {
+        int n = nodes.length;
+        double[] length = new double[n];
+        // 0 未访问，1 访问中，2 已完成
+        byte[] state = new byte[n];
+        int[] stack = new int[n];
+        int[] nextEdge = new int[n];
+        for (int start = 0; start < n; start++) {
+            if (state[start] != 0) {
+                continue;
+            }
+            int top = 0;
+            stack[0] = start;
+            nextEdge[start] = childStart[start];
+            state[start] = 1;
+            while (top >= 0) {
+                int cur = stack[top];
+                if (nextEdge[cur] < childStart[cur + 1]) {
+                    int child = childIndex[nextEdge[cur]++];
+                    if (state[child] == 0) {
+                        state[child] = 1;
+                        nextEdge[child] = childStart[child];
+                        stack[++top] = child;
+                    }
+                    continue;
+                }
+                double longest = 0;
+                for (int e = childStart[cur]; e < childStart[cur + 1]; e++) {
+                    int child = childIndex[e];
+                    if (state[child] == 2) {
+                        longest = Math.max(longest, length[child]);
+                    }
+                }
+                length[cur] = cost.applyAsDouble(cur) + longest;
+                state[cur] = 2;
+                top--;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 计划中包含的所有业务节点
+     */
+    List<Node> getElements() {
+        List<Node> elements = new ArrayList<>(nodes.length);
+        for (TreeNode n : nodes) {
+            if (n.getElement() != null) {
+                elements.add(n.getElement());
+            }
+        }
+        return elements;
+    }
+}
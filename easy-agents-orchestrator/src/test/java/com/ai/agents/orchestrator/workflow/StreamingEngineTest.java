@@ -0,0 +1,381 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.node.*;
+import com.ai.agents.orchestrator.util.*;
+import com.ai.agents.orchestrator.util.EasyTree.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.UserMessage;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 纯响应式流式引擎的单元测试（不依赖模型服务）：
+ * 1) 多父节点汇聚后才执行子节点，事件按节点发射
+ * 2) 取消订阅会停止后续节点的调度
+ *
+ * @author han
+ * @time 2026/10/17 13:20
+ */
+
+public class StreamingEngineTest {
+
+    @Test
+    public void testStreamingDiamond() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> input)
+                .build("a"));
+        TreeNode left = root.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-left")
+                .build(root.getId()));
+        TreeNode right = root.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-right")
+                .ioBound(true)
+                .build(root.getId()));
+        TreeNode join = left.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-join")
+                .build(left.getId()));
+        right.addChild(join);
+
+        StepVerifier.create(manager.startStreaming("b"))
+                .expectNextCount(4)
+                .verifyComplete();
+
+        Map<UUID, NodeResult> pool = manager.getResultPool();
+        assertEquals("b-right", pool.get(right.getId()).getValue());
+        assertEquals("b-left-join", pool.get(join.getId()).getValue());
+    }
+
+    @Test
+    public void testCancelStopsDownstream() throws InterruptedException {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+
+        AtomicBoolean childFinished = new AtomicBoolean();
+        AtomicBoolean grandChildStarted = new AtomicBoolean();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> input)
+                .build("a"));
+        TreeNode slow = root.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return input;
+                    }
+                    childFinished.set(true);
+                    return input;
+                })
+                .build(root.getId()));
+        slow.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    grandChildStarted.set(true);
+                    return input;
+                })
+                .build(slow.getId()));
+
+        Flux<Object> flux = manager.startStreaming();
+        // 只取根节点的事件就取消订阅
+        StepVerifier.create(flux.take(1))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        Thread.sleep(Duration.ofMillis(500).toMillis());
+        assertFalse(childFinished.get(), "取消后慢节点应被中断");
+        assertFalse(grandChildStarted.get(), "取消后不应再调度子节点");
+    }
+
+    @Test
+    public void testStreamingNodeTimeout() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+        AtomicBoolean childStarted = new AtomicBoolean();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    try {
+                        Thread.sleep(5_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return input;
+                })
+                .timeout(Duration.ofMillis(100))
+                .build("a"));
+        root.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    childStarted.set(true);
+                    return input;
+                })
+                .build(root.getId()));
+
+        StepVerifier.create(manager.startStreaming())
+                .expectNextCount(1)
+                .expectError(TimeoutException.class)
+                .verify(Duration.ofSeconds(2));
+        assertFalse(childStarted.get());
+    }
+
+    @Test
+    public void testTypedEvents() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> input)
+                .build("a"));
+        TreeNode skipped = root.addChild(CodeNode.<String>builder()
+                        .code(input -> input)
+                        .build(root.getId()),
+                RouteOption.when(pool -> false).build());
+
+        List<WorkFlowEvent> events = manager.streamEvents()
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        List<WorkFlowEvent.Type> types = events.stream().map(WorkFlowEvent::type).toList();
+        assertEquals(List.of(
+                WorkFlowEvent.Type.NODE_STARTED,
+                WorkFlowEvent.Type.NODE_CHUNK,
+                WorkFlowEvent.Type.NODE_COMPLETED,
+                WorkFlowEvent.Type.NODE_SKIPPED,
+                WorkFlowEvent.Type.WORKFLOW_COMPLETED), types);
+        WorkFlowEvent.NodeSkipped skip = (WorkFlowEvent.NodeSkipped) events.get(3);
+        assertEquals(skipped.getId(), skip.nodeId());
+        assertEquals(1, skip.nodeIndex());
+        assertEquals("a", ((WorkFlowEvent.NodeCompleted) events.get(2)).result());
+    }
+
+    @Test
+    public void testReducerAggregatesForDownstream() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(new TokenNode(5, Duration.ZERO).reducer(StreamReducer.concat()));
+        TreeNode child = root.addChild(CodeNode.<String>builder()
+                .code(input -> "[" + input + "]")
+                .build(root.getId()));
+        TreeNode listed = root.addChild(CodeNode.<String>builder()
+                .code(input -> input)
+                .reducer(StreamReducer.toList())
+                .build(root.getId()));
+
+        manager.startStreaming().blockLast(Duration.ofSeconds(5));
+
+        Map<UUID, NodeResult> pool = manager.getResultPool();
+        assertEquals("t0t1t2t3t4", pool.get(root.getId()).getValue());
+        // 下游节点读取到的是完整聚合结果，而不是最后一个 token
+        assertEquals("[t0t1t2t3t4]", pool.get(child.getId()).getValue());
+        assertEquals(List.of("t0t1t2t3t4"), pool.get(listed.getId()).getValue());
+    }
+
+    @Test
+    public void testDropOldestDelivery() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .streamDelivery(StreamDelivery.dropOldest(4))
+                .build();
+        TreeNode root = manager.setStartNode(new TokenNode(100, Duration.ZERO));
+
+        List<WorkFlowEvent> received = manager.streamEvents()
+                .delayElements(Duration.ofMillis(2))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        StreamMetrics metrics = manager.getStreamMetrics();
+        // 100 个输出 + 节点开始/完成 + 工作流完成
+        assertEquals(103, metrics.getEmitted());
+        assertTrue(metrics.getDropped() > 0, "慢订阅方应触发丢弃: " + metrics);
+        assertEquals(103, received.size() + metrics.getDropped());
+        // 投递丢弃不影响结果池的聚合
+        assertEquals("t99", manager.getResultPool().get(root.getId()).getValue());
+    }
+
+    @Test
+    public void testReplayForLateSubscriber() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .streamDelivery(StreamDelivery.backpressure().replay(16))
+                .build();
+        manager.setStartNode(new TokenNode(10, Duration.ofMillis(20)));
+
+        Flux<Object> flux = manager.startStreaming();
+        List<Object> first = new ArrayList<>();
+        flux.subscribe(first::add);
+        // 执行进行到一半时才订阅，仍能收到全部事件
+        List<Object> late = Flux.defer(() -> flux)
+                .delaySubscription(Duration.ofMillis(100))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(10, late.size());
+        assertEquals(10, first.size());
+    }
+
+    @Test
+    public void testCoalescingMergesTokens() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .coalescing(StreamCoalescing.of(Duration.ofMillis(50), 8))
+                .build();
+        TreeNode root = manager.setStartNode(new TokenNode(40, Duration.ZERO));
+
+        List<Object> events = manager.startStreaming()
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        // 累计达到 8 个字符即成块（越过阈值的 token 计入当前块），40 个 token 合并为十余个分块
+        assertTrue(events.size() < 20, "应合并为少量分块: " + events.size());
+        StringBuilder all = new StringBuilder();
+        for (Object event : events) {
+            String chunk = (String) ((NodeResult) ((Map.Entry<?, ?>) event).getValue()).getValue();
+            assertTrue(chunk.length() <= 10);
+            all.append(chunk);
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            expected.append("t").append(i);
+        }
+        assertEquals(expected.toString(), all.toString());
+        assertEquals("t39", manager.getResultPool().get(root.getId()).getValue());
+    }
+
+    /**
+     * 按固定间隔依次发射 count 个 token 的测试节点
+     */
+    @Test
+    public void testPipelinedChildStartsBeforeParentCompletes() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+
+        TreeNode root = manager.setStartNode(new TokenNode(5, Duration.ofMillis(30)).reducer(StreamReducer.concat()));
+        TreeNode upper = root.addPipelinedChild(CodeNode.<String>builder()
+                .code(String::toUpperCase)
+                .reducer(StreamReducer.concat())
+                .build(root.getId()));
+
+        List<WorkFlowEvent> events = manager.streamEvents().collectList().block(Duration.ofSeconds(5));
+        assertNotNull(events);
+
+        int firstChildChunk = -1;
+        int parentCompleted = -1;
+        for (int i = 0; i < events.size(); i++) {
+            WorkFlowEvent event = events.get(i);
+            if (firstChildChunk < 0 && event instanceof WorkFlowEvent.NodeChunk chunk && chunk.nodeId().equals(upper.getId())) {
+                firstChildChunk = i;
+            }
+            if (event instanceof WorkFlowEvent.NodeCompleted completed && completed.nodeId().equals(root.getId())) {
+                parentCompleted = i;
+            }
+        }
+        // 子节点在父节点结束前就已输出
+        assertTrue(firstChildChunk >= 0 && firstChildChunk < parentCompleted);
+        assertEquals("T0T1T2T3T4", manager.getResultPool().get(upper.getId()).getValue());
+
+        // 阻塞执行时流水线边与普通边相同
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertEquals("T4", pool.get(upper.getId()).getValue());
+    }
+
+    @Test
+    public void testPipelinedEdgeRejectsRouteAndJoin() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+
+        TreeNode root = manager.setStartNode(new TokenNode(1, Duration.ZERO));
+        TreeNode other = root.addChild(new TokenNode(1, Duration.ZERO));
+        TreeNode child = root.addPipelinedChild(new TokenNode(1, Duration.ZERO));
+        other.addChild(child);
+
+        assertThrows(IllegalStateException.class, manager::compile);
+    }
+
+    @Test
+    public void testPipelinedChildRespectsLimiterPerSegment() {
+        // 按类型配置的限制器同样约束流水线节点内部的每次调用
+        NodeLimiter limiter = NodeLimiter.fixed(1);
+        List<Integer> inFlight = Collections.synchronizedList(new ArrayList<>());
+        ChatBatcher batcher = ChatBatcher.builder()
+                .client(requests -> {
+                    inFlight.add(limiter.getInFlight());
+                    return requests.stream().map(messages -> "译:" + messages.get(0).getText()).toList();
+                })
+                .maxBatchSize(1)
+                .build();
+        WorkFlowManager<String> manager = WorkFlowManager.builder().limiter(AIChatNode.class, limiter).build();
+
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> "一。二。三。").build("q"));
+        TreeNode translate = root.addPipelinedChild(AIChatNode.<String>builder()
+                .batcher(batcher)
+                .prompt(sentence -> List.of(new UserMessage(sentence)))
+                .build(root.getId()));
+
+        manager.streamEvents().blockLast(Duration.ofSeconds(5));
+        assertEquals("译:一。译:二。译:三。", manager.getResultPool().get(translate.getId()).getValue());
+        assertEquals(List.of(1, 1, 1), inFlight);
+        assertEquals(0, limiter.getInFlight());
+
+        // 流水线节点不能开启结果缓存
+        TreeNode cached = root.addPipelinedChild(CodeNode.<String>builder().code(input -> input).cacheable(true).build(root.getId()));
+        assertNotNull(cached);
+        assertThrows(IllegalStateException.class, manager::compile);
+    }
+
+    @Test
+    public void testSentenceSegmentation() {
+        Flux<String> tokens = Flux.just("你好", "。How are", " you? Pi is 3", ".14", "!\n", "tail");
+        StepVerifier.create(TextSegments.sentences(tokens))
+                .expectNext("你好。", "How are you?", "Pi is 3.14!", "tail")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testNodeResultCache() throws InterruptedException {
+        LruNodeResultCache cache = new LruNodeResultCache(16, Duration.ofMillis(200));
+        WorkFlowManager<String> manager = WorkFlowManager.builder().cache(cache).build();
+
+        AtomicInteger calls = new AtomicInteger();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> input + calls.incrementAndGet())
+                .cacheable(true)
+                .build("a"));
+
+        assertEquals("q1", manager.startBlocking("q").get(root.getId()).getValue());
+        assertEquals("q1", manager.startBlocking("q").get(root.getId()).getValue());
+        assertEquals("p2", manager.startBlocking("p").get(root.getId()).getValue());
+        assertEquals(2, calls.get());
+
+        // 流式条目与阻塞条目分开缓存，命中时重放输出
+        StepVerifier.create(manager.startStreaming("q")).expectNextCount(1).verifyComplete();
+        StepVerifier.create(manager.startStreaming("q")).expectNextCount(1).verifyComplete();
+        assertEquals(3, calls.get());
+        assertEquals("q3", manager.getResultPool().get(root.getId()).getValue());
+        assertEquals(2, cache.getHitCount());
+
+        // 过期后重新执行
+        Thread.sleep(300);
+        assertEquals("q4", manager.startBlocking("q").get(root.getId()).getValue());
+    }
+
+    static class TokenNode extends Node<String> {
+        private final int count;
+        private final Duration interval;
+
+        TokenNode(int count, Duration interval) {
+            this.count = count;
+            this.interval = interval;
+        }
+
+        TokenNode reducer(StreamReducer<?> reducer) {
+            this.reducer = reducer;
+            return this;
+        }
+
+        @Override
+        public <OUT> OUT executeBlocking(String input) {
+            return (OUT) ("t" + (count - 1));
+        }
+
+        @Override
+        public Flux<?> executeStreaming(String input) {
+            Flux<String> tokens = Flux.range(0, count).map(i -> "t" + i);
+            return interval.isZero() ? tokens : tokens.delayElements(interval);
+        }
+    }
+}
@@ -0,0 +1,1282 @@
+package com.ai.agents.orchestrator.workflow;
+
+import com.ai.agents.orchestrator.node.*;
+import com.ai.agents.orchestrator.util.*;
+import com.ai.agents.orchestrator.util.EasyTree.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.*;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 同一个工作流定义被多个请求并发执行：
+ * 1) 每次执行的结果池互相独立
+ * 2) 节点输入按执行上下文解析，不会互相覆盖
+ *
+ * @author han
+ * @time 2026/10/17 10:30
+ */
+
+public class WorkFlowConcurrencyTest {
+
+    @Test
+    public void testConcurrentRunsShareCompiledPlan() throws Exception {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .executorService(Executors.newFixedThreadPool(8))
+                .build();
+
+        CodeNode<String> startNode = CodeNode.<String>builder()
+                .code(input -> "用户问: " + input)
+                .outType(String.class)
+                .build("默认输入");
+        TreeNode rootNode = manager.setStartNode(startNode);
+
+        CodeNode<String> upper = CodeNode.<String>builder()
+                .code(input -> input + "!")
+                .outType(String.class)
+                .build(rootNode.getId());
+        TreeNode upperNode = rootNode.addChild(upper);
+
+        WorkFlowPlan plan = manager.compile();
+        assertEquals(2, plan.size());
+
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        List<Future<Map<UUID, NodeResult>>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String input = "q" + i;
+            futures.add(callers.submit(() -> manager.startBlocking(input)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Map<UUID, NodeResult> pool = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(2, pool.size());
+            assertEquals("用户问: q" + i + "!", pool.get(upperNode.getId()).getValue());
+        }
+        callers.shutdown();
+
+        // 不覆盖输入时使用构建时的输入
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertEquals("用户问: 默认输入!", pool.get(upperNode.getId()).getValue());
+    }
+
+    @Test
+    public void testDiamondJoinAndRouteSkip() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> input)
+                .build("a"));
+        TreeNode left = root.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-left")
+                .build(root.getId()));
+        TreeNode right = root.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-right")
+                .build(root.getId()));
+        // 两个父节点汇聚到同一个子节点：等两个父节点都完成后才执行
+        TreeNode join = left.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-join")
+                .build(left.getId()));
+        right.addChild(join);
+        // 路由不命中的子节点及其下游都不会执行
+        TreeNode skipped = right.addChild(CodeNode.<String>builder()
+                        .code(input -> "never")
+                        .build(right.getId()),
+                RouteOption.when(pool -> false).build());
+        TreeNode skippedChild = skipped.addChild(CodeNode.<String>builder()
+                .code(input -> "never")
+                .build("x"));
+
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertEquals("a-left-join", pool.get(join.getId()).getValue());
+        assertFalse(pool.containsKey(skipped.getId()));
+        assertFalse(pool.containsKey(skippedChild.getId()));
+        assertEquals(4, pool.size());
+    }
+
+    @Test
+    public void testVirtualThreadsRespectNodeTypeLimit() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .virtualThreads(true)
+                .concurrencyLimit(CodeNode.class, 3)
+                .build();
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> input)
+                .build("go"));
+        for (int i = 0; i < 20; i++) {
+            root.addChild(CodeNode.<String>builder()
+                    .code(input -> {
+                        int now = running.incrementAndGet();
+                        maxRunning.accumulateAndGet(now, Math::max);
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        return input;
+                    })
+                    .build(root.getId()));
+        }
+
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertEquals(21, pool.size());
+        assertTrue(maxRunning.get() <= 3, "并发数超过上限: " + maxRunning.get());
+    }
+
+    @Test
+    public void testCancelAndNodeTimeout() throws Exception {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean childStarted = new AtomicBoolean();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    try {
+                        Thread.sleep(5_000);
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                        Thread.currentThread().interrupt();
+                    }
+                    return input;
+                })
+                .build("a"));
+        root.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    childStarted.set(true);
+                    return input;
+                })
+                .build(root.getId()));
+
+        // 1. 通过句柄取消：运行中的节点被中断，子节点不再启动
+        WorkFlowExecution execution = manager.startAsync();
+        Thread.sleep(100);
+        assertTrue(execution.cancel());
+        assertThrows(CancellationException.class, execution::join);
+        Thread.sleep(100);
+        assertTrue(interrupted.get(), "取消后运行中的节点应被中断");
+        assertFalse(childStarted.get(), "取消后不应再调度子节点");
+
+        // 2. 节点超时
+        WorkFlowManager<String> timed = WorkFlowManager.builder().build();
+        timed.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    try {
+                        Thread.sleep(5_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return input;
+                })
+                .timeout(Duration.ofMillis(100))
+                .build("a"));
+        long start = System.nanoTime();
+        CompletionException ex = assertThrows(CompletionException.class, timed::startBlocking);
+        assertInstanceOf(TimeoutException.class, ex.getCause());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testSingleFlightSharesConcurrentCalls() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .virtualThreads(true)
+                .singleFlight(true)
+                .build();
+
+        AtomicInteger calls = new AtomicInteger();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return input + "!";
+                })
+                .ioBound(true)
+                .cacheable(true)
+                .build("a"));
+
+        List<WorkFlowExecution> executions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            executions.add(manager.startAsync("q"));
+        }
+        for (WorkFlowExecution execution : executions) {
+            assertEquals("q!", execution.join().get(root.getId()).getValue());
+        }
+        assertEquals(1, calls.get());
+
+        // 流式执行共享同一个上游，每个订阅方都收到完整输出
+        List<Flux<WorkFlowEvent>> runs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            runs.add(manager.streamEvents("q"));
+        }
+        List<WorkFlowEvent> events = Flux.merge(runs)
+                .filter(event -> event instanceof WorkFlowEvent.NodeChunk)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(4, events.size());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testSingleFlightStreamingLateJoiner() {
+        SingleFlight flights = new SingleFlight();
+        NodeResultCache.Key key = new NodeResultCache.Key(CodeNode.<String>builder().code(input -> input).build("a"), "a", true);
+
+        // 上游结束后、移除前加入的订阅方收到重放，不会再次发起调用
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Flux<Object>> finite = () -> {
+            calls.incrementAndGet();
+            return Flux.just("x", "y");
+        };
+        List<Object> late = new ArrayList<>();
+        List<Object> first = flights.executeStreaming(key, finite)
+                .doOnComplete(() -> late.addAll(flights.executeStreaming(key, finite).collectList().block()))
+                .collectList()
+                .block();
+        assertEquals(List.of("x", "y"), first);
+        assertEquals(List.of("x", "y"), late);
+        assertEquals(1, calls.get());
+
+        // 部分订阅方取消不影响共享的上游；全部取消后上游随之取消，再加入的订阅方发起新的调用
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger cancelled = new AtomicInteger();
+        Supplier<Flux<Object>> endless = () -> {
+            started.incrementAndGet();
+            return Flux.never().doOnCancel(cancelled::incrementAndGet);
+        };
+        Disposable a = flights.executeStreaming(key, endless).subscribe();
+        Disposable b = flights.executeStreaming(key, endless).subscribe();
+        a.dispose();
+        assertEquals(0, cancelled.get());
+        b.dispose();
+        assertEquals(1, cancelled.get());
+        flights.executeStreaming(key, endless).subscribe().dispose();
+        assertEquals(2, started.get());
+        assertEquals(2, cancelled.get());
+    }
+
+    @Test
+    public void testChatBatchingAcrossRuns() {
+        StubBatchChatClient client = new StubBatchChatClient();
+        ChatBatcher batcher = ChatBatcher.builder()
+                .client(client)
+                .maxBatchSize(12)
+                .window(Duration.ofMillis(100))
+                .build();
+        // 默认线程池只有 10 个线程：等待批量回复不占用线程，一批可以超过线程数
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(AIChatNode.<String>builder()
+                .prompt(input -> List.of(new UserMessage(input)))
+                .outType(String.class)
+                .batcher(batcher)
+                .build("a"));
+
+        Map<String, WorkFlowExecution> executions = new LinkedHashMap<>();
+        for (int i = 0; i < 14; i++) {
+            executions.put("q" + i, manager.startAsync("q" + i));
+        }
+        // 每个回复都回到发起请求的那次执行
+        executions.forEach((input, execution) ->
+                assertEquals("echo:" + input, execution.join().get(root.getId()).getValue()));
+        // 凑满 12 个立即发出，剩余 2 个等窗口到期
+        assertEquals(2, batcher.getBatchCount());
+        assertEquals(List.of(12, 2), client.getBatchSizes());
+        batcher.close();
+    }
+
+
+    @Test
+    public void testChatBatcherFailsInsteadOfHanging() throws Exception {
+        List<Message> messages = List.of(new UserMessage("q"));
+
+        // 调用方传入的执行器已关闭：计时冲刷与凑满立即发出的批次都以拒绝异常失败
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        ChatBatcher rejecting = ChatBatcher.builder()
+                .client(new StubBatchChatClient())
+                .maxBatchSize(2)
+                .window(Duration.ofMillis(10))
+                .executor(stopped)
+                .build();
+        CompletableFuture<String> timed = rejecting.submit(messages);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> timed.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        CompletableFuture<String> first = rejecting.submit(messages);
+        CompletableFuture<String> second = rejecting.submit(messages);
+        assertTrue(first.isCompletedExceptionally() && second.isCompletedExceptionally());
+
+        // 关闭后提交的请求立即失败
+        ChatBatcher batcher = ChatBatcher.builder().client(new StubBatchChatClient()).build();
+        assertEquals("echo:q", batcher.submit(messages).get(1, TimeUnit.SECONDS));
+        batcher.close();
+        e = assertThrows(ExecutionException.class, () -> batcher.submit(messages).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+    @Test
+    public void testNodeLimiterQueuesFairlyAndAdapts() throws Exception {
+        // 1. 名额按申请顺序发放
+        NodeLimiter fixed = NodeLimiter.fixed(1);
+        NodeLimiter.Permit first = fixed.acquire().get();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<NodeLimiter.Permit>> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            waiters.add(fixed.acquire().whenComplete((p, ex) -> {
+                order.add(n);
+                p.release(NodeLimiter.Outcome.SUCCESS);
+            }));
+        }
+        assertEquals(3, fixed.getQueued());
+        first.release(NodeLimiter.Outcome.SUCCESS);
+        CompletableFuture.allOf(waiters.toArray(new CompletableFuture[0])).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of(0, 1, 2), order);
+
+        // 2. AIMD：拥塞时收缩，成功后缓慢恢复
+        NodeLimiter adaptive = NodeLimiter.aimd(10, 2, 20, Duration.ofSeconds(1));
+        for (int i = 0; i < 5; i++) {
+            adaptive.acquire().get().release(NodeLimiter.Outcome.DROPPED);
+        }
+        int shrunk = adaptive.getLimit();
+        assertTrue(shrunk < 10, "拥塞后上限应收缩: " + shrunk);
+        for (int i = 0; i < 50; i++) {
+            adaptive.acquire().get().release(NodeLimiter.Outcome.SUCCESS);
+        }
+        assertTrue(adaptive.getLimit() > shrunk, "成功后上限应恢复");
+
+        // 3. 令牌桶：每秒 20 个、突发 1 个，6 个节点至少需要约 250ms
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .limiter(CodeNode.class, NodeLimiter.builder().rateLimit(20, 1).build())
+                .build();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> input).build("a"));
+        for (int i = 0; i < 5; i++) {
+            root.addChild(CodeNode.<String>builder().code(input -> input).build(root.getId()));
+        }
+        long start = System.nanoTime();
+        assertEquals(6, manager.startBlocking().size());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testCriticalPathPriorityScheduling() {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .executorService(single)
+                .priorityScheduling(true)
+                .build();
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> input).build("a"));
+        for (int i = 0; i < 3; i++) {
+            root.addChild(sleepingNode("fast" + i, 5, order, root.getId()));
+        }
+        root.addChild(sleepingNode("slow", 60, order, root.getId()));
+        TreeNode chain = root.addChild(sleepingNode("chain", 5, order, root.getId()));
+        chain.addChild(sleepingNode("chain-tail", 5, order, chain.getId()));
+
+        // 1. 没有历史耗时时按路径上的节点数估算：后面还有节点的 chain 先执行，其余保持添加顺序
+        manager.startBlocking();
+        assertEquals(List.of("chain", "fast0", "fast1", "fast2", "slow", "chain-tail"), order);
+
+        // 2. 有了历史耗时后，耗时最长的 slow 先执行
+        order.clear();
+        manager.startBlocking();
+        assertEquals("slow", order.get(0));
+        single.shutdown();
+    }
+
+    @Test
+    public void testPriorityDispatcherShutdown() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .priorityScheduling(true)
+                .build();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> input).build("a"));
+        root.addChild(CodeNode.<String>builder().code(input -> input + "b").build(root.getId()));
+        assertEquals(2, manager.startBlocking().size());
+
+        // 关闭后调度器与默认线程池都不再接受任务
+        manager.shutdown();
+        CompletionException e = assertThrows(CompletionException.class, manager::startBlocking);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    @Test
+    public void testForkJoinMode() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder().forkJoinPool(pool).build();
+
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder()
+                .code(input -> input)
+                .build(1));
+        // 20 条两级的链汇聚到同一个节点；其中一条链经过 I/O 节点（走执行器的异步路径）
+        TreeNode join = new TreeNode(CodeNode.<Integer>builder()
+                .code(input -> {
+                    threads.add(Thread.currentThread().getName());
+                    return input;
+                })
+                .build(root.getId()));
+        for (int i = 0; i < 20; i++) {
+            int n = i;
+            TreeNode first = root.addChild(CodeNode.<Integer>builder()
+                    .code(input -> {
+                        threads.add(Thread.currentThread().getName());
+                        return input + n;
+                    })
+                    .ioBound(n == 0)
+                    .build(root.getId()));
+            TreeNode second = first.addChild(CodeNode.<Integer>builder()
+                    .code(input -> input * 2)
+                    .build(first.getId()));
+            second.addChild(join);
+        }
+
+        Map<UUID, NodeResult> pool1 = manager.startBlocking(3);
+        assertEquals(42, pool1.size());
+        assertEquals(3, pool1.get(join.getId()).getValue());
+        assertTrue(threads.stream().anyMatch(name -> name.startsWith("ForkJoinPool")));
+
+        // 节点失败时本次执行异常结束
+        WorkFlowManager<Integer> failing = WorkFlowManager.builder().forkJoinPool(pool).build();
+        TreeNode failRoot = failing.setStartNode(CodeNode.<Integer>builder().code(input -> input).build(1));
+        failRoot.addChild(CodeNode.<Integer>builder()
+                .code(input -> {
+                    throw new IllegalStateException("boom");
+                })
+                .build(failRoot.getId()));
+        CompletionException ex = assertThrows(CompletionException.class, failing::startBlocking);
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+        pool.shutdown();
+    }
+
+
+    @Test
+    public void testForkJoinRouteFailureEndsRun() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        // 根节点纯计算时在工作线程上结算出边，I/O 密集时在异步回调中结算
+        for (boolean ioBound : List.of(false, true)) {
+            WorkFlowManager<String> manager = WorkFlowManager.builder().forkJoinPool(pool).build();
+            TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> input).ioBound(ioBound).build("a"));
+            root.addChild(CodeNode.<String>builder().code(input -> input + "b").build(root.getId()),
+                    RouteOption.when(results -> {
+                        throw new IllegalStateException("boom");
+                    }).build());
+
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> manager.startAsync("a").future().get(3, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause(), "ioBound=" + ioBound);
+        }
+        pool.shutdown();
+    }
+    @Test
+    public void testInlineFastPath() {
+        // 声明 inline 的节点在完成父节点的线程上执行
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+        String[] threads = new String[2];
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    threads[0] = Thread.currentThread().getName();
+                    // 保证父节点完成时后继已挂上，由执行父节点的线程继续执行子节点
+                    sleepQuietly(20);
+                    return input;
+                })
+                .build("a"));
+        TreeNode child = root.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    threads[1] = Thread.currentThread().getName();
+                    return input + "b";
+                })
+                .inline(true)
+                .build(root.getId()));
+        assertEquals("ab", manager.startBlocking().get(child.getId()).getValue());
+        assertEquals(threads[0], threads[1]);
+
+        // 流式执行同样不切换调度器
+        manager.startStreaming().blockLast();
+        assertEquals(threads[0], threads[1]);
+
+        // 自动内联：执行几次、平均耗时低于阈值后不再提交任务
+        WorkFlowManager<String> auto = WorkFlowManager.builder().inlineThreshold(Duration.ofSeconds(1)).build();
+        String[] autoThreads = new String[2];
+        TreeNode autoRoot = auto.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    autoThreads[0] = Thread.currentThread().getName();
+                    sleepQuietly(20);
+                    return input;
+                })
+                .ioBound(true)
+                .build("a"));
+        autoRoot.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    autoThreads[1] = Thread.currentThread().getName();
+                    return input;
+                })
+                .build(autoRoot.getId()));
+        for (int i = 0; i < 3; i++) {
+            auto.startBlocking();
+        }
+        auto.startBlocking();
+        assertEquals(autoThreads[0], autoThreads[1]);
+    }
+
+    @Test
+    public void testLongSynchronousChain() {
+        // 内联节点、缓存命中与恢复的结果都同步完成，长链不应逐层加深调用栈
+        int length = 3000;
+        AtomicBoolean failing = new AtomicBoolean(false);
+        AtomicInteger calls = new AtomicInteger();
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder()
+                .cache(new LruNodeResultCache(2 * length, Duration.ofMinutes(1)))
+                .checkpointStore(store)
+                .build();
+        TreeNode node = manager.setStartNode(CodeNode.<Integer>builder()
+                .code(input -> input)
+                .inline(true)
+                .build(0));
+        for (int i = 1; i < length; i++) {
+            boolean last = i == length - 1;
+            node = node.addChild(CodeNode.<Integer>builder()
+                    .code(input -> {
+                        calls.incrementAndGet();
+                        if (last && failing.get()) {
+                            throw new IllegalStateException("boom");
+                        }
+                        return input + 1;
+                    })
+                    .inline(true)
+                    .cacheable(true)
+                    .build(node.getId()));
+        }
+        UUID end = node.getId();
+        assertEquals(length - 1, manager.startBlocking(0).get(end).getValue());
+        assertEquals(length - 1, calls.get());
+
+        // 全部命中缓存
+        assertEquals(length - 1, manager.startBlocking(0).get(end).getValue());
+        assertEquals(length - 1, calls.get());
+
+        // 从检查点恢复：除最后一个节点外全部使用恢复的结果
+        failing.set(true);
+        assertThrows(CompletionException.class, () -> manager.resumeBlocking("chain", 1));
+        failing.set(false);
+        calls.set(0);
+        assertEquals(length, manager.resumeBlocking("chain", 1).get(end).getValue());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testMapNodeFanOut() {
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder()
+                .code(n -> {
+                    List<Integer> items = new ArrayList<>();
+                    for (int i = 0; i < n; i++) {
+                        items.add(i);
+                    }
+                    return items;
+                })
+                .build(20));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        TreeNode map = root.addChild(MapNode.<Integer>builder()
+                .mapper(CodeNode.<Integer>builder()
+                        .code(i -> {
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            sleepQuietly(10);
+                            running.decrementAndGet();
+                            return i * 2;
+                        })
+                        .ioBound(true)
+                        .build((Integer) null))
+                .maxConcurrency(3)
+                .build(root.getId()));
+
+        // 阻塞执行：按元素顺序收集，并发数不超过上限
+        List<?> result = (List<?>) manager.startBlocking().get(map.getId()).getValue();
+        assertEquals(20, result.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i * 2, result.get(i));
+        }
+        assertTrue(maxRunning.get() <= 3 && maxRunning.get() > 1, "maxRunning=" + maxRunning.get());
+
+        // 流式执行且不要求顺序：先完成的元素先输出
+        WorkFlowManager<Integer> streaming = WorkFlowManager.builder().build();
+        TreeNode items = streaming.setStartNode(CodeNode.<Integer>builder().code(n -> List.of(0, 1, 2, 3)).build(4));
+        TreeNode unordered = items.addChild(MapNode.<Integer>builder()
+                .mapper(CodeNode.<Integer>builder()
+                        .code(i -> {
+                            sleepQuietly((4 - i) * 40L);
+                            return i;
+                        })
+                        .ioBound(true)
+                        .build((Integer) null))
+                .maxConcurrency(4)
+                .ordered(false)
+                .build(items.getId()));
+        List<Object> chunks = streaming.streamEvents()
+                .filter(event -> event instanceof WorkFlowEvent.NodeChunk chunk && chunk.nodeId().equals(unordered.getId()))
+                .map(event -> ((WorkFlowEvent.NodeChunk) event).value())
+                .collectList()
+                .block();
+        assertEquals(List.of(3, 2, 1, 0), chunks);
+    }
+
+    @Test
+    public void testMapNodeResolvesTypeLimiter() {
+        // 子节点只在管理器上按类型配置了限制器
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder()
+                .limiter(CodeNode.class, NodeLimiter.fixed(1))
+                .build();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder().code(n -> List.of(0, 1, 2, 3)).build(4));
+        TreeNode map = root.addChild(MapNode.<Integer>builder()
+                .mapper(CodeNode.<Integer>builder()
+                        .code(i -> {
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            sleepQuietly(20);
+                            running.decrementAndGet();
+                            return i;
+                        })
+                        .ioBound(true)
+                        .build((Integer) null))
+                .maxConcurrency(4)
+                .build(root.getId()));
+
+        assertEquals(List.of(0, 1, 2, 3), manager.startBlocking().get(map.getId()).getValue());
+        assertEquals(1, maxRunning.get());
+
+        maxRunning.set(0);
+        List<Object> chunks = manager.streamEvents()
+                .filter(event -> event instanceof WorkFlowEvent.NodeChunk chunk && chunk.nodeId().equals(map.getId()))
+                .map(event -> ((WorkFlowEvent.NodeChunk) event).value())
+                .collectList()
+                .block();
+        assertEquals(List.of(0, 1, 2, 3), chunks);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testMapNodeDoesNotPinForkJoinWorker() {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder().forkJoinPool(pool).build();
+        AtomicLong mapDone = new AtomicLong();
+        AtomicLong siblingDone = new AtomicLong();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder().code(n -> List.of(0, 1, 2, 3)).build(4));
+        root.addChild(CodeNode.<List<Integer>>builder()
+                .code(items -> {
+                    siblingDone.set(System.nanoTime());
+                    return items.size();
+                })
+                .build(root.getId()));
+        // 最后一个就绪的子节点由当前工作线程直接执行
+        TreeNode map = root.addChild(MapNode.<Integer>builder()
+                .mapper(CodeNode.<Integer>builder()
+                        .code(i -> {
+                            sleepQuietly(20);
+                            mapDone.set(System.nanoTime());
+                            return i;
+                        })
+                        .build((Integer) null))
+                .build(root.getId()));
+
+        assertEquals(List.of(0, 1, 2, 3), manager.startBlocking().get(map.getId()).getValue());
+        // 扇出节点等待元素时让出唯一的工作线程，兄弟节点无需等它结束
+        assertTrue(siblingDone.get() < mapDone.get());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSubWorkFlowNodeRunsOnParentExecutor() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        WorkFlowManager<String> sub = WorkFlowManager.builder().build();
+        TreeNode subRoot = sub.setStartNode(CodeNode.<String>builder()
+                .code(input -> {
+                    threads.add(Thread.currentThread().getName());
+                    return input + "-sub";
+                })
+                .build("unused"));
+        TreeNode subTail = subRoot.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    threads.add(Thread.currentThread().getName());
+                    return input.toUpperCase();
+                })
+                .build(subRoot.getId()));
+
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService parentPool = Executors.newFixedThreadPool(2, r -> new Thread(r, "parent-" + seq.incrementAndGet()));
+        WorkFlowManager<String> parent = WorkFlowManager.builder().executorService(parentPool).build();
+        TreeNode root = parent.setStartNode(CodeNode.<String>builder().code(input -> input).build("a"));
+        TreeNode embedded = root.addChild(SubWorkFlowNode.<String>builder()
+                .workflow(sub)
+                .inputMapper(input -> input + "!")
+                .output(subTail.getId())
+                .build(root.getId()));
+        TreeNode after = embedded.addChild(CodeNode.<String>builder()
+                .code(input -> input + "-done")
+                .build(embedded.getId()));
+
+        // 并发执行共享子工作流的执行计划，子工作流的节点都在父工作流的执行器上运行
+        List<CompletableFuture<Map<UUID, NodeResult>>> runs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            runs.add(parent.startAsync("r" + i).future());
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals("R" + i + "!-SUB-done", runs.get(i).get(5, TimeUnit.SECONDS).get(after.getId()).getValue());
+        }
+        assertFalse(threads.isEmpty());
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("parent-")), threads.toString());
+
+        // 流式执行同样得到映射后的输出
+        List<Object> completed = parent.streamEvents("s")
+                .filter(event -> event instanceof WorkFlowEvent.NodeCompleted done && done.nodeId().equals(after.getId()))
+                .map(event -> ((WorkFlowEvent.NodeCompleted) event).result())
+                .collectList()
+                .block();
+        assertEquals(List.of("S!-SUB-done"), completed);
+        parentPool.shutdown();
+    }
+
+    @Test
+    public void testLimitedSubWorkFlowNodeFailsOnMapperError() throws Exception {
+        WorkFlowManager<String> sub = WorkFlowManager.builder().build();
+        sub.setStartNode(CodeNode.<String>builder().code(input -> input).build("unused"));
+
+        WorkFlowManager<String> parent = WorkFlowManager.builder().build();
+        TreeNode root = parent.setStartNode(CodeNode.<String>builder().code(input -> input).build("a"));
+        NodeLimiter limiter = NodeLimiter.fixed(2);
+        root.addChild(SubWorkFlowNode.<String>builder()
+                .workflow(sub)
+                .inputMapper(input -> {
+                    throw new IllegalStateException("bad input: " + input);
+                })
+                .limiter(limiter)
+                .build(root.getId()));
+
+        // 映射函数在发放名额的回调中同步抛出，执行仍然以该异常结束并归还名额
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> parent.startAsync().future().get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testMemoizedRouteOption() {
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder().code(input -> input).build(1));
+        TreeNode other = root.addChild(CodeNode.<Integer>builder().code(input -> input * 10).build(root.getId()));
+
+        // 同一个声明了依赖的条件设置在多条边上（包括另一个父节点的出边），每次执行只求值一次
+        AtomicInteger evaluations = new AtomicInteger();
+        RouteOption isOdd = RouteOption
+                .when(pool -> {
+                    evaluations.incrementAndGet();
+                    return (Integer) pool.get(root.getId()).getValue() % 2 == 1;
+                })
+                .dependsOn(root.getId())
+                .build();
+        List<TreeNode> routed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            routed.add(root.addChild(CodeNode.<Integer>builder().code(input -> input + 1).build(root.getId()), isOdd));
+        }
+        routed.add(other.addChild(CodeNode.<Integer>builder().code(input -> input + 1).build(other.getId()), isOdd));
+
+        Map<UUID, NodeResult> odd = manager.startBlocking(3);
+        assertEquals(1, evaluations.get());
+        routed.forEach(node -> assertTrue(odd.containsKey(node.getId())));
+
+        evaluations.set(0);
+        Map<UUID, NodeResult> even = manager.startBlocking(4);
+        assertEquals(1, evaluations.get());
+        routed.forEach(node -> assertFalse(even.containsKey(node.getId())));
+
+        evaluations.set(0);
+        manager.streamEvents(5).blockLast();
+        assertEquals(1, evaluations.get());
+
+        // 依赖的节点必须在工作流中
+        WorkFlowManager<Integer> invalid = WorkFlowManager.builder().build();
+        TreeNode invalidRoot = invalid.setStartNode(CodeNode.<Integer>builder().code(input -> input).build(1));
+        invalidRoot.addChild(CodeNode.<Integer>builder().code(input -> input).build(invalidRoot.getId()),
+                RouteOption.when(pool -> true).dependsOn(UUID.randomUUID()).build());
+        assertThrows(IllegalStateException.class, invalid::compile);
+    }
+
+
+    @Test
+    public void testRouteOptionNotMemoizedBeforeDependencies() {
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder().code(input -> input).build(1));
+        TreeNode slow = root.addChild(CodeNode.<Integer>builder()
+                .code(input -> {
+                    sleepQuietly(50);
+                    return input * 10;
+                })
+                .build(root.getId()));
+
+        // 根节点结算出边时 slow 尚未完成，此时的结论不能被记住
+        AtomicInteger evaluations = new AtomicInteger();
+        RouteOption slowDone = RouteOption
+                .when(pool -> {
+                    evaluations.incrementAndGet();
+                    return pool.get(slow.getId()) != null;
+                })
+                .dependsOn(slow.getId())
+                .build();
+        TreeNode early = root.addChild(CodeNode.<Integer>builder().code(input -> input).build(root.getId()), slowDone);
+        TreeNode late = slow.addChild(CodeNode.<Integer>builder().code(input -> input + 1).build(slow.getId()), slowDone);
+
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertFalse(pool.containsKey(early.getId()));
+        assertEquals(11, pool.get(late.getId()).getValue());
+        // 依赖完成前求值一次，完成时求值并记住一次，之后复用
+        assertEquals(2, evaluations.get());
+    }
+    @Test
+    public void testSpeculativeRoutedChild() {
+        WorkFlowManager<Integer> manager = WorkFlowManager.builder().speculation(0.8).build();
+        TreeNode root = manager.setStartNode(CodeNode.<Integer>builder().code(input -> input).build(0));
+        AtomicLong parentEnd = new AtomicLong();
+        AtomicLong childStart = new AtomicLong();
+        TreeNode parent = root.addChild(CodeNode.<Integer>builder()
+                .code(input -> {
+                    sleepQuietly(50);
+                    parentEnd.set(System.nanoTime());
+                    return input;
+                })
+                .build(root.getId()));
+        // 子节点读取根节点的结果，不依赖父节点，可以与父节点同时运行
+        TreeNode child = parent.addChild(CodeNode.<Integer>builder()
+                        .code(input -> {
+                            childStart.set(System.nanoTime());
+                            sleepQuietly(50);
+                            return input * 10;
+                        })
+                        .speculative(true)
+                        .build(root.getId()),
+                RouteOption.when(pool -> (Integer) pool.get(parent.getId()).getValue() % 2 == 0)
+                        .dependsOn(parent.getId())
+                        .build());
+
+        // 积累足够的历史命中记录之前不推测
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 20, manager.startBlocking(i * 2).get(child.getId()).getValue());
+        }
+        SpeculationMetrics metrics = manager.getSpeculationMetrics();
+        assertEquals(0, metrics.getStarted());
+
+        // 路由命中：子节点在父节点结束前就已启动，结果被采用
+        Map<UUID, NodeResult> hit = manager.startBlocking(4);
+        assertEquals(40, hit.get(child.getId()).getValue());
+        assertTrue(childStart.get() < parentEnd.get());
+        assertEquals(1, metrics.getStarted());
+        assertEquals(1, metrics.getCommitted());
+
+        // 路由未命中：推测执行被丢弃，结果不进入结果池
+        Map<UUID, NodeResult> miss = manager.startBlocking(3);
+        assertFalse(miss.containsKey(child.getId()));
+        assertEquals(2, metrics.getStarted());
+        assertEquals(1, metrics.getDiscarded());
+
+        assertThrows(IllegalStateException.class, () -> WorkFlowManager.builder()
+                .speculation(0.9)
+                .forkJoinPool(ForkJoinPool.commonPool())
+                .build());
+    }
+
+    @Test
+    public void testSkipPropagationAndAnyJoin() {
+        WorkFlowManager<String> manager = WorkFlowManager.builder().build();
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> input).build("a"));
+        // 被剪掉的分支 pruned -> prunedTail 与正常分支 kept 汇聚到 join
+        TreeNode pruned = root.addChild(CodeNode.<String>builder().code(input -> "never").build(root.getId()),
+                RouteOption.when(pool -> false).build());
+        TreeNode prunedTail = pruned.addChild(CodeNode.<String>builder().code(input -> "never").build(pruned.getId()));
+        TreeNode kept = root.addChild(CodeNode.<String>builder().code(input -> input + "-kept").build(root.getId()));
+        TreeNode join = kept.addChild(CodeNode.<String>builder().code(input -> input + "-join").build(kept.getId()));
+        prunedTail.addChild(join);
+
+        // 跳过沿子树向下传播，汇聚节点不会一直等待被剪掉的父节点
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertEquals("a-kept-join", pool.get(join.getId()).getValue());
+        assertFalse(pool.containsKey(prunedTail.getId()));
+
+        List<UUID> skipped = manager.streamEvents()
+                .filter(event -> event instanceof WorkFlowEvent.NodeSkipped)
+                .map(event -> ((WorkFlowEvent.NodeSkipped) event).nodeId())
+                .collectList()
+                .block();
+        assertEquals(List.of(pruned.getId(), prunedTail.getId()), skipped);
+
+        // ANY 汇聚：最先完成的父节点放行后立即执行，并读取该父节点的结果
+        WorkFlowManager<String> race = WorkFlowManager.builder().build();
+        TreeNode start = race.setStartNode(CodeNode.<String>builder().code(input -> input).build("q"));
+        AtomicLong slowEnd = new AtomicLong();
+        AtomicLong firstStart = new AtomicLong();
+        TreeNode fast = start.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    sleepQuietly(10);
+                    return "fast";
+                })
+                .build(start.getId()));
+        TreeNode slow = start.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    sleepQuietly(200);
+                    slowEnd.set(System.nanoTime());
+                    return "slow";
+                })
+                .build(start.getId()));
+        TreeNode first = slow.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    firstStart.set(System.nanoTime());
+                    return input + "-first";
+                })
+                .joinMode(JoinMode.ANY)
+                .build(slow.getId()));
+        fast.addChild(first);
+
+        Map<UUID, NodeResult> raced = race.startBlocking();
+        assertEquals("fast-first", raced.get(first.getId()).getValue());
+        assertEquals("slow", raced.get(slow.getId()).getValue());
+        assertTrue(firstStart.get() < slowEnd.get());
+    }
+
+    @Test
+    public void testCheckpointResume(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("checkpoints.log");
+        AtomicInteger rootRuns = new AtomicInteger();
+        AtomicInteger fetchRuns = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean(true);
+
+        // 进程内恢复：失败的执行以同一个 runId 恢复，已完成的节点不再执行
+        FileCheckpointStore store = CheckpointStore.file(log);
+        CheckpointFlow flow = new CheckpointFlow(store, rootRuns, fetchRuns, failing);
+        WorkFlowExecution failed = flow.manager.resumeAsync("order-1", "q");
+        assertThrows(CompletionException.class, failed::join);
+        assertEquals("order-1", failed.getRunId());
+        assertEquals(1, rootRuns.get());
+        assertEquals(1, fetchRuns.get());
+
+        // 跨进程恢复：重新打开日志、重新构建工作流（节点 UUID 全部改变）后仍能按节点键匹配记录
+        store.close();
+        failing.set(false);
+        store = CheckpointStore.file(log);
+        assertEquals(2, store.load("order-1").size());
+        flow = new CheckpointFlow(store, rootRuns, fetchRuns, failing);
+        Map<UUID, NodeResult> pool = flow.manager.resumeBlocking("order-1", "q");
+        assertEquals("q-fetched-done", pool.get(flow.done.getId()).getValue());
+        assertEquals(1, rootRuns.get());
+        assertEquals(1, fetchRuns.get());
+
+        // 成功结束后记录被清除，重新打开时压缩掉失效记录
+        assertEquals(0, store.size());
+        store.close();
+        assertTrue(Files.size(log) > 0);
+        store = CheckpointStore.file(log);
+        assertEquals(0, store.size());
+        assertEquals(0, Files.size(log));
+        store.close();
+
+        // 只有以 runId 启动的执行会被记录
+        InMemoryCheckpointStore memory = new InMemoryCheckpointStore();
+        failing.set(true);
+        WorkFlowManager<String> manager = new CheckpointFlow(memory, rootRuns, fetchRuns, failing).manager;
+        WorkFlowExecution plain = manager.startAsync("m");
+        assertThrows(CompletionException.class, plain::join);
+        assertNull(plain.getRunId());
+        assertEquals(0, memory.size());
+
+        // 失败后不再恢复的执行可以放弃或按保留期清除
+        assertThrows(CompletionException.class, () -> manager.resumeBlocking("m-1", "m"));
+        assertThrows(CompletionException.class, () -> manager.resumeBlocking("m-2", "m"));
+        assertEquals(Set.of("m-1", "m-2"), memory.runIds());
+        memory.discard("m-1");
+        assertEquals(Set.of("m-2"), memory.runIds());
+        assertEquals(0, memory.expire(Duration.ofHours(1)));
+        sleepQuietly(5);
+        assertEquals(1, memory.expire(Duration.ZERO));
+        assertEquals(0, memory.size());
+    }
+
+    @Test
+    public void testFileCheckpointStoreRetention(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("retention.log");
+        try (FileCheckpointStore store = FileCheckpointStore.builder().path(log).sync(false).build()) {
+            store.record("old", "0:node", new NodeResult("a"));
+            store.record("old", "1:node", new NodeResult("b"));
+            store.record("done", "0:node", new NodeResult("c"));
+            // 同一节点的新记录覆盖旧记录
+            store.record("old", "1:node", new NodeResult("b2"));
+            store.complete("done");
+            // 结果只在读取时从文件解码
+            assertEquals(Map.of("0:node", "a", "1:node", "b2"), values(store.load("old")));
+        }
+
+        // 保留期内重新打开：压缩掉已结束的执行，位置更新后仍能读取
+        long before = Files.size(log);
+        try (FileCheckpointStore store = FileCheckpointStore.builder().path(log).retention(Duration.ofHours(1)).build()) {
+            assertEquals(Set.of("old"), store.runIds());
+            assertEquals(Map.of("0:node", "a", "1:node", "b2"), values(store.load("old")));
+            store.record("old", "2:node", new NodeResult("d"));
+            assertEquals("d", store.load("old").get("2:node").getValue());
+        }
+        assertTrue(Files.size(log) < before + 100);
+
+        // 超过保留期的执行在打开时被丢弃
+        sleepQuietly(5);
+        try (FileCheckpointStore store = FileCheckpointStore.builder().path(log).retention(Duration.ZERO).build()) {
+            assertEquals(0, store.size());
+        }
+        assertEquals(0, Files.size(log));
+    }
+
+    private static Map<String, Object> values(Map<String, NodeResult> results) {
+        Map<String, Object> values = new HashMap<>();
+        results.forEach((key, result) -> values.put(key, result.getValue()));
+        return values;
+    }
+
+    @Test
+    public void testCheckpointResumeForkJoin() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        AtomicInteger rootRuns = new AtomicInteger();
+        AtomicInteger fetchRuns = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+
+        // 工作窃取模式下失败的执行同样保留检查点
+        CheckpointFlow flow = new CheckpointFlow(store, pool, rootRuns, fetchRuns, failing);
+        assertThrows(CompletionException.class, () -> flow.manager.resumeBlocking("order-2", "q"));
+        assertEquals(2, store.load("order-2").size());
+
+        failing.set(false);
+        Map<UUID, NodeResult> results = flow.manager.resumeBlocking("order-2", "q");
+        assertEquals("q-fetched-done", results.get(flow.done.getId()).getValue());
+        assertEquals(1, rootRuns.get());
+        assertEquals(1, fetchRuns.get());
+        assertEquals(0, store.size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testNodeResultCodec(@TempDir Path dir) throws Exception {
+        NodeResultCodec codec = NodeResultCodec.builder()
+                .registerRecord(1, Answer.class)
+                .registerEnum(2, JoinMode.class)
+                .build();
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("answers", List.of(new Answer("北京", 0.9, List.of("a", "b")), new Answer("上海", -1, List.of())));
+        value.put("mode", JoinMode.ANY);
+        value.put("counts", List.of(0, -1, 300, Long.MIN_VALUE, (short) 7, 'x', true, 1.5f));
+        value.put("tags", new LinkedHashSet<>(List.of("x", "y")));
+        value.put("missing", null);
+
+        ByteBuffer encoded = codec.encode(new NodeResult(value));
+        // 堆外缓冲区同样可以直接解码
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.remaining()).put(encoded.duplicate()).flip();
+        assertEquals(value, codec.decode(encoded).getValue());
+        assertEquals(value, codec.decode(direct).getValue());
+        assertFalse(direct.hasRemaining());
+
+        // ByteBuffer 值解码为源缓冲区的只读切片，不复制
+        ByteBuffer payload = ByteBuffer.wrap("大块中间结果".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer source = codec.encode(new NodeResult(payload));
+        ByteBuffer slice = (ByteBuffer) codec.decode(source).getValue();
+        assertTrue(slice.isReadOnly());
+        assertEquals(payload, slice);
+        source.put(source.limit() - 1, (byte) 0);
+        assertNotEquals(payload, slice);
+
+        // 未注册的类型拒绝编码，而不是静默退回 Java 序列化
+        assertThrows(IllegalArgumentException.class, () -> NodeResultCodec.standard().encode(new NodeResult(new Answer("x", 0, List.of()))));
+
+        // 文件检查点按注册的编解码器写入与回放
+        Path log = dir.resolve("codec.log");
+        try (FileCheckpointStore store = CheckpointStore.file(log, codec)) {
+            store.record("run", "0:node", new NodeResult(value));
+        }
+        try (FileCheckpointStore store = CheckpointStore.file(log, codec)) {
+            assertEquals(value, store.load("run").get("0:node").getValue());
+        }
+    }
+
+    @Test
+    public void testOffHeapResultsReleasedAfterLastReader(@TempDir Path dir) throws Exception {
+        for (Path mappedDir : Arrays.asList(null, dir)) {
+            WorkFlowManager<String> manager = WorkFlowManager.builder()
+                    .offHeapResults(1024, NodeResultCodec.standard(), mappedDir)
+                    .releaseConsumedResults(true)
+                    .build();
+            String doc = "文".repeat(2000);
+            TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> doc).build("q"));
+            TreeNode extract = root.addChild(CodeNode.<String>builder().code(input -> input + "!").build(root.getId()));
+            // 被跳过的读者与声明依赖的路由选项同样计入读者
+            root.addChild(CodeNode.<String>builder().code(input -> "never").build(root.getId()),
+                    RouteOption.when(pool -> false).dependsOn(root.getId()).build());
+            AtomicReference<NodeResult> seen = new AtomicReference<>();
+            AtomicBoolean rootReleased = new AtomicBoolean();
+            TreeNode summary = extract.addChild(CodeNode.<String>builder()
+                    .code(input -> {
+                        seen.set(manager.getResultPool().get(extract.getId()));
+                        rootReleased.set(!manager.getResultPool().containsKey(root.getId()));
+                        return input.length();
+                    })
+                    .build(extract.getId()));
+
+            Map<UUID, NodeResult> pool = manager.startBlocking();
+            // 中间结果在最后一个读者结束后释放，没有读者的输出保留
+            assertEquals(2001, pool.get(summary.getId()).getValue());
+            assertFalse(pool.containsKey(root.getId()));
+            assertFalse(pool.containsKey(extract.getId()));
+            assertTrue(rootReleased.get());
+
+            OffHeapNodeResult offHeap = assertInstanceOf(OffHeapNodeResult.class, seen.get());
+            assertEquals(mappedDir != null, offHeap.isMapped());
+            assertTrue(offHeap.isReleased());
+            assertThrows(IllegalStateException.class, offHeap::getValue);
+            if (mappedDir != null) {
+                try (var files = Files.list(mappedDir)) {
+                    assertEquals(0, files.count());
+                }
+            }
+        }
+
+        // 引用计数：最后一个引用释放时才回收
+        OffHeapNodeResult shared = OffHeapNodeResult.direct(NodeResultCodec.standard().encode(new NodeResult("x")), String.class, NodeResultCodec.standard());
+        assertSame(shared, shared.retain());
+        assertFalse(shared.release());
+        assertEquals("x", shared.getValue());
+        assertTrue(shared.release());
+        assertThrows(IllegalStateException.class, shared::release);
+        assertThrows(IllegalStateException.class, shared::retain);
+    }
+
+    @Test
+    public void testOffHeapResultsReleasedWhenRunEnds(@TempDir Path dir) throws Exception {
+        String doc = "文".repeat(2000);
+        WorkFlowManager<String> manager = WorkFlowManager.builder()
+                .offHeapResults(1024, NodeResultCodec.standard(), dir)
+                .build();
+        AtomicBoolean failing = new AtomicBoolean();
+        AtomicBoolean blocking = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(1);
+        TreeNode root = manager.setStartNode(CodeNode.<String>builder().code(input -> doc).build("q"));
+        TreeNode leaf = root.addChild(CodeNode.<String>builder()
+                .code(input -> {
+                    if (failing.get()) {
+                        throw new IllegalStateException("下游服务不可用");
+                    }
+                    if (blocking.get()) {
+                        started.countDown();
+                        sleepQuietly(5000);
+                    }
+                    return input + "!";
+                })
+                .build(root.getId()));
+
+        // 1. 成功：未开启提前释放时中间结果与输出都留在结果池中，结束时解码回堆内并删除映射文件
+        Map<UUID, NodeResult> pool = manager.startBlocking();
+        assertFalse(pool.get(root.getId()) instanceof OffHeapNodeResult);
+        assertFalse(pool.get(leaf.getId()) instanceof OffHeapNodeResult);
+        assertEquals(doc + "!", pool.get(leaf.getId()).getValue());
+        assertEquals(0, countFiles(dir));
+
+        // 2. 失败
+        failing.set(true);
+        assertThrows(CompletionException.class, manager::startBlocking);
+        assertEquals(0, countFiles(dir));
+
+        // 3. 取消
+        failing.set(false);
+        blocking.set(true);
+        WorkFlowExecution execution = manager.startAsync("q");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, countFiles(dir));
+        execution.cancel();
+        assertEquals(0, countFiles(dir));
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CodeNode<String> sleepingNode(String name, long millis, List<String> order, UUID inputResultId) {
+        return CodeNode.<String>builder()
+                .code(input -> {
+                    order.add(name);
+                    try {
+                        Thread.sleep(millis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return name;
+                })
+                .build(inputResultId);
+    }
+
+    record Answer(String text, double score, List<String> sources) {
+    }
+
+    /**
+     * 每次构建得到一张新的图（节点 UUID 不同），模拟进程重启后由同一段代码重建工作流
+     */
+    static class CheckpointFlow {
+        final WorkFlowManager<String> manager;
+        final TreeNode done;
+
+        CheckpointFlow(CheckpointStore store, AtomicInteger rootRuns, AtomicInteger fetchRuns, AtomicBoolean failing) {
+            this(store, null, rootRuns, fetchRuns, failing);
+        }
+
+        CheckpointFlow(CheckpointStore store, ForkJoinPool pool, AtomicInteger rootRuns, AtomicInteger fetchRuns, AtomicBoolean failing) {
+            manager = WorkFlowManager.builder().checkpointStore(store).forkJoinPool(pool).build();
+            TreeNode root = manager.setStartNode(CodeNode.<String>builder()
+                    .code(input -> {
+                        rootRuns.incrementAndGet();
+                        return input;
+                    })
+                    .build("默认输入"));
+            TreeNode fetch = root.addChild(CodeNode.<String>builder()
+                    .code(input -> {
+                        fetchRuns.incrementAndGet();
+                        return input + "-fetched";
+                    })
+                    .build(root.getId()));
+            done = fetch.addChild(CodeNode.<String>builder()
+                    .code(input -> {
+                        if (failing.get()) {
+                            throw new IllegalStateException("下游服务不可用");
+                        }
+                        return input + "-done";
+                    })
+                    .build(fetch.getId()));
+        }
+    }
+}
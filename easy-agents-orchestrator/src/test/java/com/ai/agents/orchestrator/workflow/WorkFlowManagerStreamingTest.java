@@ -23,7 +23,7 @@ import static org.junit.jupiter.api.Assertions.*;
 /**
  * 流式输出路径的基础单元测试：
  * 1) 单节点执行时，会边执行边发射事件（本例为单元素）
- * 2) 节点完成后，其“最后一个元素”会写入结果池
+ * 2) 节点完成后，其聚合结果会写入结果池（AI 节点默认拼接为完整回答）
  */
 
 @SpringBootTest(classes = Main.class)
@@ -79,7 +79,7 @@ public class WorkFlowManagerStreamingTest {
                 .thenConsumeWhile(o -> true)
                 .verifyComplete();
 
-        // 6. 完成后，结果池应包含两个节点的聚合结果（各自流的最后一个元素）。
+        // 6. 完成后，结果池应包含两个节点的聚合结果。
         Map<UUID, NodeResult> pool = manager.getResultPool();
         assertNotNull(pool, "结果池不应为 null");
         assertEquals(2, pool.size(), "两个节点应在结果池中留下 2 条记录");